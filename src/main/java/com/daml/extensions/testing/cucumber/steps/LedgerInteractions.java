@@ -9,7 +9,6 @@
 
 package com.daml.extensions.testing.cucumber.steps;
 
-import com.daml.daml_lf_dev.DamlLf1;
 import com.daml.extensions.testing.comparator.ledger.ContractArchived;
 import com.daml.extensions.testing.comparator.ledger.ContractCreated;
 import com.daml.extensions.testing.cucumber.utils.Config;
@@ -27,6 +26,7 @@ import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.time.Duration;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
 import java.util.concurrent.TimeoutException;
@@ -34,7 +34,6 @@ import java.util.concurrent.atomic.AtomicReference;
 import java.util.regex.Pattern;
 
 import static com.daml.extensions.testing.cucumber.utils.TableUtils.fieldsToArgs;
-import static com.daml.extensions.testing.utils.PackageUtils.findPackageObject;
 import static com.daml.extensions.testing.utils.PackageUtils.findTemplate;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
@@ -102,19 +101,18 @@ public class LedgerInteractions implements En {
               void run() throws IOException {
                 PackageUtils.TemplateType idWithArgs =
                     findTemplate(sandboxManager.getClient(), moduleAndEntityName);
-                DamlLf1.Package pkg =
-                    findPackageObject(
-                        sandboxManager.getClient(), idWithArgs.identifier.getModuleName());
                 checkTableIsTwoOrManyRows(dataTable);
+                List<DamlRecord> contracts = new ArrayList<>();
                 for (int i = 1; i < dataTable.width(); i++) {
-                  DamlRecord args =
-                      fieldsToArgs(
-                          dataTable.column(i), idWithArgs.createFields, pkg, sandboxManager);
-                  sandboxManager
-                      .getLedgerAdapter()
-                      .createContract(
-                          sandboxManager.getPartyId(partyDisplayName), idWithArgs.identifier, args);
+                  contracts.add(
+                      fieldsToArgs(dataTable.column(i), idWithArgs.createFields, sandboxManager));
                 }
+                sandboxManager
+                    .getLedgerAdapter()
+                    .createContracts(
+                        sandboxManager.getPartyId(partyDisplayName),
+                        idWithArgs.identifier,
+                        contracts);
               }
             });
     When(
@@ -157,14 +155,10 @@ public class LedgerInteractions implements En {
               void run() throws IOException {
                 PackageUtils.TemplateType idWithArgs =
                     findTemplate(sandboxManager.getClient(), moduleAndEntityName);
-                DamlLf1.Package pkg =
-                    findPackageObject(
-                        sandboxManager.getClient(), idWithArgs.identifier.getModuleName());
                 DamlRecord args =
                     fieldsToArgs(
                         checkTableIsOneOrTwoRowsAndGet(dataTable),
                         idWithArgs.choices.get(choiceName),
-                        pkg,
                         sandboxManager);
                 ContractId contractId =
                     sandboxManager
@@ -203,13 +197,10 @@ public class LedgerInteractions implements En {
             DataTable dataTable) -> {
           PackageUtils.TemplateType idWithArgs =
               findTemplate(sandboxManager.getClient(), moduleAndEntityName);
-          DamlLf1.Package pkg =
-              findPackageObject(sandboxManager.getClient(), idWithArgs.identifier.getModuleName());
           DamlRecord args =
               fieldsToArgs(
                   checkTableIsOneOrTwoRowsAndGet(dataTable),
                   idWithArgs.createFields,
-                  pkg,
                   sandboxManager);
           sandboxManager
               .getLedgerAdapter()
@@ -14,16 +14,38 @@ import com.daml.ledger.javaapi.data.DamlRecord;
 import com.daml.daml_lf_dev.DamlLf1;
 
 import java.util.*;
+import java.util.function.Function;
 
 import static com.daml.extensions.testing.Dsl.*;
 import static com.daml.extensions.testing.utils.PackageUtils.getTypePrim;
 
 public class TableUtils {
+  /** Converts the arguments to fields whose types are resolved, as returned by findTemplate. */
+  public static DamlRecord fieldsToArgs(
+      List<String> args, List<DamlLf1.FieldWithType> fields, SandboxManager sandboxManager) {
+    return fieldsToArgs(args, fields, TableUtils::resolvedPrim, sandboxManager);
+  }
+
   public static DamlRecord fieldsToArgs(
       List<String> args,
       List<DamlLf1.FieldWithType> fields,
       DamlLf1.Package lfPackage,
       SandboxManager sandboxManager) {
+    return fieldsToArgs(args, fields, type -> getTypePrim(type, lfPackage), sandboxManager);
+  }
+
+  private static DamlLf1.Type.Prim resolvedPrim(DamlLf1.Type type) {
+    if (!type.hasPrim()) {
+      throw new IllegalArgumentException("Unsupported field type: " + type.getSumCase());
+    }
+    return type.getPrim();
+  }
+
+  private static DamlRecord fieldsToArgs(
+      List<String> args,
+      List<DamlLf1.FieldWithType> fields,
+      Function<DamlLf1.Type, DamlLf1.Type.Prim> primOf,
+      SandboxManager sandboxManager) {
     if (args.size() != fields.size()) {
       throw new IllegalArgumentException(
           "Wrong number of actual arguments: " + args.size() + " (formal: " + fields.size() + ")");
@@ -32,7 +54,7 @@ public class TableUtils {
     HashMap<String, String> m = new HashMap<>();
     for (int i = 0; i < args.size(); i++) {
       DamlLf1.Type fieldType = fields.get(i).getType();
-      DamlLf1.Type.Prim prim = getTypePrim(fieldType, lfPackage);
+      DamlLf1.Type.Prim prim = primOf.apply(fieldType);
       String arg = args.get(i);
       System.out.println(
           "Formal arg: "
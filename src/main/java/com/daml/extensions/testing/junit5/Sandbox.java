@@ -8,7 +8,10 @@ package com.daml.extensions.testing.junit5;
 
 import com.daml.daml_lf_dev.DamlLf1;
 import com.daml.extensions.testing.ledger.DefaultLedgerAdapter;
+import com.daml.extensions.testing.ledger.LedgerFixture;
 import com.daml.extensions.testing.ledger.SandboxManager;
+import com.daml.extensions.testing.ledger.SandboxPool;
+import com.daml.extensions.testing.store.RetentionPolicy;
 import com.daml.ledger.javaapi.data.Identifier;
 import com.daml.ledger.javaapi.data.Party;
 import com.daml.ledger.rxjava.DamlLedgerClient;
@@ -19,10 +22,15 @@ import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.time.Duration;
+import java.util.Arrays;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.BiConsumer;
 import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 import static com.daml.extensions.testing.utils.PackageUtils.findPackage;
 import static com.daml.extensions.testing.utils.Preconditions.require;
@@ -32,7 +40,16 @@ public class Sandbox {
   private static final Duration DEFAULT_WAIT_TIMEOUT = Duration.ofSeconds(40);
   private static final Duration DEFAULT_OBSERVATION_TIMEOUT = Duration.ofSeconds(25);
   private static final String[] DEFAULT_PARTIES = new String[] {};
-  private final SandboxManager sandboxManager;
+  // sandboxes kept running between tests, stopped by a single shutdown hook unless stopped before
+  private static final Set<Sandbox> runningBetweenTests = ConcurrentHashMap.newKeySet();
+  private static final AtomicBoolean shutdownHookAdded = new AtomicBoolean(false);
+  private final Supplier<SandboxManager> sandboxManagerFactory;
+  private final SandboxManager idleSandboxManager;
+  private final int warmPoolSize;
+  private final boolean logicalReset;
+  private final SandboxPool.Key poolKey;
+  private SandboxManager sandboxManager;
+  private boolean leased = false;
 
   public static SandboxBuilder builder() {
     return new SandboxBuilder();
@@ -50,21 +67,59 @@ public class Sandbox {
       BiConsumer<DamlLedgerClient, ManagedChannel> setupApplication,
       boolean useWallclockTime,
       Optional<String> ledgerId,
-      Optional<LogLevel> logLevel) {
-    this.sandboxManager =
-        new SandboxManager(
+      Optional<LogLevel> logLevel,
+      int warmPoolSize,
+      boolean logicalReset,
+      boolean multiplexedSubscription,
+      RetentionPolicy retentionPolicy,
+      boolean snapshotSetup,
+      Optional<LedgerFixture> setupFixture,
+      boolean directExecutor) {
+    this.sandboxManagerFactory =
+        () -> {
+          SandboxManager manager =
+              new SandboxManager(
+                  damlRoot,
+                  testModule,
+                  testStartScript,
+                  port,
+                  sandboxWaitTimeout,
+                  observationTimeout,
+                  parties,
+                  darPath,
+                  setupApplication,
+                  useWallclockTime,
+                  ledgerId,
+                  logLevel);
+          manager.setMultiplexedSubscription(multiplexedSubscription);
+          manager.setRetentionPolicy(retentionPolicy);
+          manager.setSnapshotSetup(snapshotSetup);
+          setupFixture.ifPresent(manager::setSetupFixture);
+          manager.setDirectExecutor(directExecutor);
+          return manager;
+        };
+    this.idleSandboxManager = sandboxManagerFactory.get();
+    this.sandboxManager = idleSandboxManager;
+    this.warmPoolSize = warmPoolSize;
+    this.logicalReset = logicalReset;
+    this.poolKey =
+        new SandboxPool.Key(
             damlRoot,
+            darPath,
             testModule,
             testStartScript,
-            port,
             sandboxWaitTimeout,
             observationTimeout,
-            parties,
-            darPath,
+            Arrays.asList(parties),
             setupApplication,
             useWallclockTime,
             ledgerId,
-            logLevel);
+            logLevel,
+            multiplexedSubscription,
+            retentionPolicy,
+            snapshotSetup,
+            setupFixture,
+            directExecutor);
   }
 
   public static class SandboxBuilder {
@@ -81,6 +136,13 @@ public class Sandbox {
     private BiConsumer<DamlLedgerClient, ManagedChannel> setupApplication = (t, u) -> {};
     private Optional<String> ledgerId = Optional.empty();
     private Optional<LogLevel> logLevel = Optional.empty();
+    private int warmPoolSize = 0;
+    private boolean logicalReset = false;
+    private boolean multiplexedSubscription = false;
+    private RetentionPolicy retentionPolicy = RetentionPolicy.unbounded();
+    private boolean snapshotSetup = false;
+    private Optional<LedgerFixture> setupFixture = Optional.empty();
+    private boolean directExecutor = false;
 
     public SandboxBuilder dar(Path darPath) {
       this.darPath = darPath;
@@ -152,6 +214,71 @@ public class Sandbox {
       return this;
     }
 
+    /**
+     * Keeps {@code size} sandboxes started in the background. Each test leases one of them instead
+     * of waiting for a restart, and a replacement is started once the test has finished.
+     */
+    public SandboxBuilder warmPool(int size) {
+      this.warmPoolSize = size;
+      return this;
+    }
+
+    /**
+     * Keeps the sandbox running between tests. Instead of a restart, each test gets freshly
+     * allocated parties for the configured party names and only observes events created after it
+     * has started. The setup script runs only once, when the sandbox is first started. The
+     * {@link TestSandbox} field of such a sandbox must be static.
+     */
+    public SandboxBuilder logicalReset() {
+      this.logicalReset = true;
+      return this;
+    }
+
+    /** Observes all parties through a single transaction stream instead of one per party. */
+    public SandboxBuilder multiplexedSubscription() {
+      this.multiplexedSubscription = true;
+      return this;
+    }
+
+    /**
+     * Limits the events kept for observation. Events nobody has observed yet are evicted, oldest
+     * first, once the limits of the policy are exceeded.
+     */
+    public SandboxBuilder observedEventRetention(RetentionPolicy retentionPolicy) {
+      this.retentionPolicy = retentionPolicy;
+      return this;
+    }
+
+    /**
+     * Runs the setup script of {@link #moduleAndScript} only once, against a sandbox storing its
+     * ledger on disk. Every sandbox started afterwards with the same configuration starts from a
+     * copy of that ledger instead of running the script again.
+     */
+    public SandboxBuilder snapshotSetup() {
+      this.snapshotSetup = true;
+      return this;
+    }
+
+    /**
+     * Sets up the ledger in this JVM after the sandbox has started, through its existing
+     * connection. Unlike a setup script, this needs neither a second JVM nor loading the DAR again.
+     * Cannot be combined with {@link #logicalReset()}, which would leave the fixture contracts with
+     * the parties of the first test.
+     */
+    public SandboxBuilder setupFixture(LedgerFixture fixture) {
+      this.setupFixture = Optional.of(fixture);
+      return this;
+    }
+
+    /**
+     * Handles gRPC responses on the shared event loop instead of an executor. Only use this if the
+     * setup callback never blocks in a stream observer of the channel it is given.
+     */
+    public SandboxBuilder directExecutor() {
+      this.directExecutor = true;
+      return this;
+    }
+
     public Sandbox build() {
       validate();
 
@@ -167,15 +294,36 @@ public class Sandbox {
           setupApplication,
           useWallclockTime,
           ledgerId,
-          logLevel);
+          logLevel,
+          warmPoolSize,
+          logicalReset,
+          multiplexedSubscription,
+          retentionPolicy,
+          snapshotSetup,
+          setupFixture,
+          directExecutor);
     }
 
     private void validate() {
       require(darPath != null, "DAR path cannot be null.");
       require(setupApplication != null, "Application setup function cannot be null.");
+      require(retentionPolicy != null, "Retention policy cannot be null.");
       require(
           isDamlRoot(damlRoot),
           String.format("DAML root '%s' must contain a daml.yaml.", damlRoot));
+      require(warmPoolSize >= 0, "Warm pool size cannot be negative.");
+      require(
+          !snapshotSetup || testStartScript.isPresent(),
+          "A setup snapshot needs a setup script, see moduleAndScript.");
+      require(
+          warmPoolSize == 0 || !port.isPresent(),
+          "A fixed port cannot be used together with a warm sandbox pool.");
+      require(
+          warmPoolSize == 0 || !logicalReset,
+          "A warm sandbox pool cannot be used together with logical reset.");
+      require(
+          !setupFixture.isPresent() || !logicalReset,
+          "A setup fixture cannot be used together with logical reset.");
     }
   }
 
@@ -211,10 +359,44 @@ public class Sandbox {
   }
 
   public void stop() {
-    sandboxManager.stop();
+    runningBetweenTests.remove(this);
+    if (leased) {
+      SandboxPool.shared().release(poolKey, sandboxManager);
+      sandboxManager = idleSandboxManager;
+      leased = false;
+    } else {
+      sandboxManager.stop();
+    }
+  }
+
+  public boolean usesLogicalReset() {
+    return logicalReset;
+  }
+
+  /** Resets the ledger view of the running sandbox, see {@link SandboxBuilder#logicalReset()}. */
+  public void reset() throws IOException, InterruptedException, TimeoutException {
+    if (!sandboxManager.isRunning()) {
+      stopOnShutdown(this);
+    }
+    sandboxManager.reset();
+  }
+
+  private static void stopOnShutdown(Sandbox sandbox) {
+    runningBetweenTests.add(sandbox);
+    if (shutdownHookAdded.compareAndSet(false, true)) {
+      Runtime.getRuntime()
+          .addShutdownHook(
+              new Thread(() -> runningBetweenTests.forEach(Sandbox::stop), "sandbox-shutdown"));
+    }
   }
 
   public void restart() throws IOException, InterruptedException, TimeoutException {
-    sandboxManager.restart();
+    if (warmPoolSize > 0) {
+      stop();
+      sandboxManager = SandboxPool.shared().lease(poolKey, warmPoolSize, sandboxManagerFactory);
+      leased = true;
+    } else {
+      sandboxManager.restart();
+    }
   }
 }
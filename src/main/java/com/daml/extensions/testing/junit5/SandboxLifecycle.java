@@ -0,0 +1,24 @@
+/*
+ * Copyright 2020 Digital Asset (Switzerland) GmbH and/or its affiliates
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.daml.extensions.testing.junit5;
+
+/** How long a {@link TestSandbox} runs. */
+public enum SandboxLifecycle {
+  /** The sandbox is restarted, or logically reset, before each test method. */
+  PER_METHOD,
+  /**
+   * The sandbox is started once before the first test of the class and stopped after the last one.
+   * With logical reset each test still gets fresh parties.
+   */
+  PER_CLASS,
+  /**
+   * The sandbox is started once, by the first test class using it, and stopped when all tests have
+   * run. Test classes share it by referring to the same {@link Sandbox} instance, and their tests
+   * take turns using it even when the classes run concurrently.
+   */
+  PER_SUITE
+}
@@ -6,50 +6,185 @@
 
 package com.daml.extensions.testing.junit5;
 
+import org.junit.jupiter.api.extension.AfterAllCallback;
 import org.junit.jupiter.api.extension.AfterEachCallback;
+import org.junit.jupiter.api.extension.BeforeAllCallback;
 import org.junit.jupiter.api.extension.BeforeEachCallback;
 import org.junit.jupiter.api.extension.ExtensionContext;
 import org.junit.platform.commons.support.AnnotationSupport;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeoutException;
 
-public class SandboxTestExtension implements AfterEachCallback, BeforeEachCallback {
+import static com.daml.extensions.testing.utils.Preconditions.require;
+
+public class SandboxTestExtension
+    implements BeforeAllCallback, AfterAllCallback, AfterEachCallback, BeforeEachCallback {
+  private static final ExtensionContext.Namespace NAMESPACE =
+      ExtensionContext.Namespace.create(SandboxTestExtension.class);
+
+  @Override
+  public void beforeAll(ExtensionContext context)
+      throws IOException, InterruptedException, TimeoutException {
+    for (Map.Entry<Sandbox, SandboxLifecycle> entry : getSandboxesFromContext(context).entrySet()) {
+      Sandbox sandbox = entry.getKey();
+      switch (entry.getValue()) {
+        case PER_CLASS:
+          start(sandbox);
+          break;
+        case PER_SUITE:
+          startForSuite(context, sandbox);
+          break;
+        default:
+          break;
+      }
+    }
+  }
 
   @Override
-  public void beforeEach(ExtensionContext context) throws IOException, InterruptedException, TimeoutException {
-    Sandbox sandbox = getSandboxFromTestContext(context);
-    sandbox.restart();
+  public void afterAll(ExtensionContext context) {
+    getSandboxesFromContext(context)
+        .forEach(
+            (sandbox, lifecycle) -> {
+              if (lifecycle == SandboxLifecycle.PER_CLASS) {
+                sandbox.stop();
+              }
+            });
+  }
+
+  @Override
+  public void beforeEach(ExtensionContext context)
+      throws IOException, InterruptedException, TimeoutException {
+    for (Map.Entry<Sandbox, SandboxLifecycle> entry : getSandboxesFromContext(context).entrySet()) {
+      Sandbox sandbox = entry.getKey();
+      if (entry.getValue() == SandboxLifecycle.PER_SUITE) {
+        acquireForTest(context, sandbox);
+      }
+      if (sandbox.usesLogicalReset()) {
+        sandbox.reset();
+      } else if (entry.getValue() == SandboxLifecycle.PER_METHOD) {
+        sandbox.restart();
+      }
+    }
   }
 
   @Override
   public void afterEach(ExtensionContext context) {
-    Sandbox sandbox = getSandboxFromTestContext(context);
-    sandbox.stop();
+    getSandboxesFromContext(context)
+        .forEach(
+            (sandbox, lifecycle) -> {
+              if (lifecycle == SandboxLifecycle.PER_METHOD && !sandbox.usesLogicalReset()) {
+                sandbox.stop();
+              } else if (lifecycle == SandboxLifecycle.PER_SUITE) {
+                releaseForTest(context, sandbox);
+              }
+            });
+  }
+
+  private static void start(Sandbox sandbox)
+      throws IOException, InterruptedException, TimeoutException {
+    if (!sandbox.usesLogicalReset()) {
+      sandbox.restart();
+    }
   }
 
-  private Sandbox getSandboxFromTestContext(ExtensionContext context){
-    Object testInstance = getTestInstanceFromContext(context);
-    return getSandboxFromTestInstance(testInstance);
+  /**
+   * Starts the sandbox unless another test class has started it already. It is stopped when the
+   * root context is closed, after all tests have run.
+   */
+  private static void startForSuite(ExtensionContext context, Sandbox sandbox) {
+    context
+        .getRoot()
+        .getStore(NAMESPACE)
+        .getOrComputeIfAbsent(sandbox, SuiteSandbox::new, SuiteSandbox.class);
   }
 
-  private Object getTestInstanceFromContext(ExtensionContext context){
-      return context.getRequiredTestInstance();
+  /**
+   * Waits until no test of another class uses the suite sandbox, as its parties and ledger adapter
+   * are shared. The test holds it until {@link #releaseForTest}.
+   */
+  private static void acquireForTest(ExtensionContext context, Sandbox sandbox)
+      throws InterruptedException {
+    Semaphore inUse =
+        context.getRoot().getStore(NAMESPACE).get(sandbox, SuiteSandbox.class).inUse;
+    inUse.acquire();
+    context.getStore(NAMESPACE).put(sandbox, inUse);
   }
 
-  private Sandbox getSandboxFromTestInstance(Object testInstance) {
-    List<Field> sandboxFields =
-        AnnotationSupport.findAnnotatedFields(testInstance.getClass(), TestSandbox.class);
-    Sandbox sandbox = null;
+  private static void releaseForTest(ExtensionContext context, Sandbox sandbox) {
+    Semaphore inUse = context.getStore(NAMESPACE).remove(sandbox, Semaphore.class);
+    if (inUse != null) {
+      inUse.release();
+    }
+  }
+
+  private Map<Sandbox, SandboxLifecycle> getSandboxesFromContext(ExtensionContext context) {
+    return getSandboxes(context.getRequiredTestClass(), context.getTestInstance().orElse(null));
+  }
+
+  /**
+   * The sandboxes of the test class; before all tests, only those in static fields. Sandboxes which
+   * outlive a test, either by their lifecycle or by logical reset, must be static, as every test
+   * method has its own test instance.
+   */
+  static Map<Sandbox, SandboxLifecycle> getSandboxes(Class<?> testClass, Object testInstance) {
+    List<Field> sandboxFields = AnnotationSupport.findAnnotatedFields(testClass, TestSandbox.class);
+    Map<Sandbox, SandboxLifecycle> sandboxes = new LinkedHashMap<>();
     for (Field sandboxField : sandboxFields) {
+      SandboxLifecycle lifecycle = sandboxField.getAnnotation(TestSandbox.class).lifecycle();
+      boolean isStatic = Modifier.isStatic(sandboxField.getModifiers());
+      if (!isStatic && testInstance == null) {
+        require(
+            lifecycle == SandboxLifecycle.PER_METHOD,
+            String.format(
+                "Test sandbox '%s' with lifecycle %s must be static.",
+                sandboxField.getName(), lifecycle));
+        continue;
+      }
+      Sandbox sandbox;
       try {
-        sandbox = (Sandbox) sandboxField.get(testInstance);
+        sandboxField.setAccessible(true);
+        sandbox = (Sandbox) sandboxField.get(isStatic ? null : testInstance);
       } catch (Exception e) {
         throw new RuntimeException(e);
       }
+      require(
+          isStatic || !sandbox.usesLogicalReset(),
+          String.format(
+              "Test sandbox '%s' with logical reset must be static.", sandboxField.getName()));
+      sandboxes.put(sandbox, lifecycle);
+    }
+    return sandboxes;
+  }
+
+  private static class SuiteSandbox implements ExtensionContext.Store.CloseableResource {
+    private final Sandbox sandbox;
+    private final Semaphore inUse = new Semaphore(1);
+
+    SuiteSandbox(Object sandbox) {
+      this.sandbox = (Sandbox) sandbox;
+      try {
+        start(this.sandbox);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IllegalStateException("Interrupted while starting the sandbox.", e);
+      } catch (TimeoutException e) {
+        throw new IllegalStateException(e.getMessage(), e);
+      }
+    }
+
+    @Override
+    public void close() {
+      sandbox.stop();
     }
-    return sandbox;
   }
 }
@@ -11,4 +11,7 @@ import java.lang.annotation.*;
 @Documented
 @Target(ElementType.FIELD)
 @Retention(RetentionPolicy.RUNTIME)
-public @interface TestSandbox {}
+public @interface TestSandbox {
+  /** When the sandbox is started and stopped; shared lifecycles need a static field. */
+  SandboxLifecycle lifecycle() default SandboxLifecycle.PER_METHOD;
+}
@@ -10,23 +10,30 @@ import static com.daml.extensions.testing.utils.OS.damlCommand;
 import static com.daml.extensions.testing.utils.Preconditions.require;
 import static com.daml.extensions.testing.utils.SandboxUtils.isDamlRoot;
 
-import java.io.File;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.util.concurrent.TimeUnit;
 
+import com.daml.extensions.testing.utils.ProcessOutput;
+import com.daml.extensions.testing.utils.RotatingLogFile;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 public class DamlScriptRunner {
   private final Logger logger = LoggerFactory.getLogger(getClass().getCanonicalName());
 
+  private static final int FAILURE_OUTPUT_LINES = 50;
+
   private final ProcessBuilder processBuilder;
+  private final String scriptName;
+  private final Path logFile;
 
   private Process script;
 
-  private DamlScriptRunner(ProcessBuilder processBuilder) {
+  private DamlScriptRunner(ProcessBuilder processBuilder, String scriptName, Path logFile) {
     this.processBuilder = processBuilder;
+    this.scriptName = scriptName;
+    this.logFile = logFile;
   }
 
   public static Builder builder() {
@@ -35,9 +42,24 @@ public class DamlScriptRunner {
 
   public void run() throws IOException, InterruptedException {
     logger.debug("Executing: {}", String.join(" ", processBuilder.command()));
-    script = processBuilder.start();
-    if (!scriptRunSuccessfully()) {
-      throw new IllegalStateException("Unexpected termination of DAML script.");
+    RotatingLogFile log = new RotatingLogFile(logFile);
+    try {
+      script = processBuilder.start();
+    } catch (IOException e) {
+      log.close();
+      throw e;
+    }
+    ProcessOutput output = ProcessOutput.capture("script " + scriptName, script, log);
+    boolean success = scriptRunSuccessfully();
+    if (script.isAlive()) {
+      script.destroyForcibly();
+    }
+    output.close();
+    if (!success) {
+      throw new IllegalStateException(
+          String.format(
+              "Unexpected termination of DAML script.%n%s",
+              output.describeTail(FAILURE_OUTPUT_LINES)));
     }
     logger.info("DAML Script has run successfully.");
   }
@@ -82,12 +104,11 @@ public class DamlScriptRunner {
       require(
           isDamlRoot(damlRoot),
           String.format("DAML root '%s' must contain a daml.yaml.", damlRoot));
-      File logFile = new File(String.format("integration-test-%s.log", scriptName));
-      ProcessBuilder processBuilder =
-          command()
-              .redirectError(ProcessBuilder.Redirect.appendTo(logFile))
-              .redirectOutput(ProcessBuilder.Redirect.appendTo(logFile));
-      return new DamlScriptRunner(processBuilder);
+      Path logFile =
+          SandboxRunner.logDirectory(Integer.parseInt(sandboxPort))
+              .resolve(String.format("script-%s.log", scriptName));
+      ProcessBuilder processBuilder = command().redirectErrorStream(true);
+      return new DamlScriptRunner(processBuilder, scriptName, logFile);
     }
 
     private ProcessBuilder command() {
@@ -8,17 +8,26 @@ package com.daml.extensions.testing.ledger;
 
 import com.daml.extensions.testing.comparator.MessageTester;
 import com.daml.extensions.testing.comparator.ledger.ContractCreated;
+import com.daml.extensions.testing.comparator.ledger.TreeEventIndexer;
+import com.daml.extensions.testing.comparator.ledger.TreeEventSizer;
 import com.daml.extensions.testing.ledger.clock.TimeProvider;
 import com.daml.extensions.testing.logging.Dump;
 import com.daml.extensions.testing.store.InMemoryMessageStorage;
+import com.daml.extensions.testing.store.RetentionPolicy;
 import com.daml.extensions.testing.store.ValueStore;
 import com.daml.extensions.testing.utils.ContractWithId;
 import com.daml.ledger.api.v1.*;
-import com.daml.ledger.api.v1.admin.PartyManagementServiceGrpc;
-import com.daml.ledger.api.v1.admin.PartyManagementServiceOuterClass;
 import com.daml.ledger.javaapi.data.*;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.protobuf.Empty;
 import com.google.protobuf.Timestamp;
+import io.grpc.Context;
 import io.grpc.ManagedChannel;
+import io.grpc.Status;
 import io.grpc.stub.StreamObserver;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -26,18 +35,24 @@ import org.slf4j.LoggerFactory;
 import java.time.Duration;
 import java.time.Instant;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.function.Predicate;
 import java.util.function.Supplier;
 
+import static com.daml.extensions.testing.utils.Preconditions.require;
+
 public class DefaultLedgerAdapter {
   private static final Logger logger = LoggerFactory.getLogger(DefaultLedgerAdapter.class);
 
   private static final String APP_ID = "func-test";
 
-  private static final Duration TTL = Duration.ofSeconds(10);
+  private static final int DEFAULT_MAX_COMMANDS_IN_FLIGHT = 128;
+  private static final int DEFAULT_MAX_COMMANDS_PER_TRANSACTION = 100;
 
   private static final String ChannelName = "ledger";
 
@@ -49,11 +64,23 @@ public class DefaultLedgerAdapter {
   private final Supplier<TimeProvider> timeProviderFactory;
   private final Duration timeout;
 
-  private TimeProvider timeProvider;
-  private ManagedChannel channel;
+  private volatile TimeProvider timeProvider;
+  private volatile ManagedChannel channel;
+  private final CommandServiceGrpc.CommandServiceBlockingStub commandService;
+  private final CommandServiceGrpc.CommandServiceFutureStub asyncCommandService;
+  private final TransactionServiceGrpc.TransactionServiceBlockingStub transactionService;
+  private final TransactionServiceGrpc.TransactionServiceStub asyncTransactionService;
+  private final PartyAllocator partyAllocator;
   private final String ledgerId;
   private LedgerOffset startOffset;
-  private Map<String, InMemoryMessageStorage<TreeEvent>> storageByParty;
+  private volatile Map<String, InMemoryMessageStorage<TreeEvent>> storageByParty;
+  private Context.CancellableContext subscriptions;
+  private boolean multiplexedSubscription = false;
+  private TransactionTreeMultiplexer multiplexer;
+  private volatile Semaphore commandsInFlight = new Semaphore(DEFAULT_MAX_COMMANDS_IN_FLIGHT);
+  private volatile int maxCommandsPerTransaction = DEFAULT_MAX_COMMANDS_PER_TRANSACTION;
+  private RetentionPolicy retentionPolicy = RetentionPolicy.unbounded();
+  private final TreeMap<Instant, List<Consumer<Instant>>> triggers = new TreeMap<>();
 
   public DefaultLedgerAdapter(
       ValueStore valueStore,
@@ -64,6 +91,11 @@ public class DefaultLedgerAdapter {
     this.valueStore = valueStore;
     this.ledgerId = ledgerId;
     this.channel = channel;
+    this.commandService = CommandServiceGrpc.newBlockingStub(channel);
+    this.asyncCommandService = CommandServiceGrpc.newFutureStub(channel);
+    this.transactionService = TransactionServiceGrpc.newBlockingStub(channel);
+    this.asyncTransactionService = TransactionServiceGrpc.newStub(channel);
+    this.partyAllocator = new PartyAllocator(channel);
     this.timeout = timeout;
     this.timeProviderFactory = timeProviderFactory;
   }
@@ -75,6 +107,19 @@ public class DefaultLedgerAdapter {
         .build();
   }
 
+  /**
+   * Observes all parties through a single transaction tree stream instead of one stream per party.
+   * Must be set before the adapter is started.
+   */
+  public void setMultiplexedSubscription(boolean multiplexedSubscription) {
+    this.multiplexedSubscription = multiplexedSubscription;
+  }
+
+  /** Limits the unclaimed events kept for each party. Must be called before {@code start}. */
+  public void setRetentionPolicy(RetentionPolicy retentionPolicy) {
+    this.retentionPolicy = retentionPolicy;
+  }
+
   public void start(String... parties) {
     start(parties, LedgerOffset.LedgerBegin.getInstance());
   }
@@ -84,6 +129,12 @@ public class DefaultLedgerAdapter {
     this.startOffset = initStartOffset(suggestStartOffset);
     this.timeProvider = timeProviderFactory.get();
     storageByParty = new ConcurrentHashMap<>();
+    subscriptions = Context.current().withCancellation();
+    if (multiplexedSubscription) {
+      multiplexer =
+          new TransactionTreeMultiplexer(
+              ledgerId, channel, subscriptions, startOffset, this::onMultiplexedEvent);
+    }
     for (String explicitParty : explicitParties) {
       getStorage(explicitParty);
     }
@@ -93,18 +144,46 @@ public class DefaultLedgerAdapter {
   public synchronized void stop() throws InterruptedException {
     if (channel != null) {
       logger.info("Stopping Ledger Adapter");
+      cancelSubscriptions();
+      closeStorages();
       channel.shutdown().awaitTermination(5L, TimeUnit.SECONDS);
       channel = null;
       logger.info("Ledger Adapter stopped");
     }
   }
 
-  public synchronized void createContract(Party party, Identifier templateId, DamlRecord payload) {
+  /**
+   * Stops observing the ledger, but leaves the channel open so that it can be used by another
+   * adapter.
+   */
+  public synchronized void detach() {
+    if (channel != null) {
+      logger.info("Detaching Ledger Adapter");
+      cancelSubscriptions();
+      closeStorages();
+      channel = null;
+    }
+  }
+
+  private void closeStorages() {
+    if (storageByParty != null) {
+      storageByParty.values().forEach(InMemoryMessageStorage::close);
+    }
+  }
+
+  private void cancelSubscriptions() {
+    if (subscriptions != null) {
+      subscriptions.cancel(null);
+      subscriptions = null;
+    }
+  }
+
+  public void createContract(Party party, Identifier templateId, DamlRecord payload) {
     logger.debug("Attempting to create a contract {}", templateId);
     submit(party, new CreateCommand(templateId, payload));
   }
 
-  public synchronized void exerciseChoice(
+  public void exerciseChoice(
       Party party, Identifier templateId, ContractId contractId, String choice, Value payload) {
     exerciseChoice(party, new ExerciseCommand(templateId, contractId.getValue(), choice, payload));
   }
@@ -128,11 +207,21 @@ public class DefaultLedgerAdapter {
     getStorage(party).assertDidntHappen(eventTester);
   }
 
-  private synchronized InMemoryMessageStorage<TreeEvent> getStorage(String party) {
+  private InMemoryMessageStorage<TreeEvent> getStorage(String party) {
+    InMemoryMessageStorage<TreeEvent> storage = storageByParty.get(party);
+    return storage != null ? storage : getOrCreateStorage(party);
+  }
+
+  private synchronized InMemoryMessageStorage<TreeEvent> getOrCreateStorage(String party) {
     // ensureStarted();
     if (!storageByParty.containsKey(party)) {
-      InMemoryMessageStorage<TreeEvent> storage = initStorageAndStartListening(party);
-      storageByParty.put(party, storage);
+      if (multiplexer != null) {
+        storageByParty.put(party, createStorage());
+        multiplexer.addParty(party);
+      } else {
+        InMemoryMessageStorage<TreeEvent> storage = initStorageAndStartListening(party);
+        storageByParty.put(party, storage);
+      }
     }
     return storageByParty.get(party);
   }
@@ -140,7 +229,7 @@ public class DefaultLedgerAdapter {
   private LedgerOffset initStartOffset(LedgerOffset suggestStartOffset) {
     if (LedgerOffset.LedgerEnd.getInstance().equals(suggestStartOffset)) {
       LedgerOffsetOuterClass.LedgerOffset endOffset =
-          TransactionServiceGrpc.newBlockingStub(channel)
+          transactionService
               .getLedgerEnd(
                   TransactionServiceOuterClass.GetLedgerEndRequest.newBuilder()
                       .setLedgerId(ledgerId)
@@ -152,9 +241,18 @@ public class DefaultLedgerAdapter {
     return suggestStartOffset;
   }
 
+  private InMemoryMessageStorage<TreeEvent> createStorage() {
+    return new InMemoryMessageStorage<>(
+        ChannelName,
+        valueStore,
+        new TreeEventIndexer(),
+        new TreeEventSizer(),
+        retentionPolicy,
+        InMemoryMessageStorage.SharedMatcher());
+  }
+
   private InMemoryMessageStorage<TreeEvent> initStorageAndStartListening(String party) {
-    InMemoryMessageStorage<TreeEvent> storage =
-        new InMemoryMessageStorage<>(ChannelName, valueStore);
+    InMemoryMessageStorage<TreeEvent> storage = createStorage();
     StreamObserver<TransactionServiceOuterClass.GetTransactionTreesResponse> observer =
         new StreamObserver<>() {
           public void onNext(TransactionServiceOuterClass.GetTransactionTreesResponse response) {
@@ -164,6 +262,8 @@ public class DefaultLedgerAdapter {
           public void onError(Throwable t) {
             if (t.toString().contains("Channel shutdown invoked")) {
               logger.trace("Channel shutdown invoked " + party);
+            } else if (Status.fromThrowable(t).getCode() == Status.Code.CANCELLED) {
+              logger.trace("Stream cancelled for party {}", party);
             } else {
                 logger.error("Error occurred in stream handler for party " + party, t);
             }
@@ -181,11 +281,12 @@ public class DefaultLedgerAdapter {
             new FiltersByParty(Collections.singletonMap(party, NoFilter.instance)),
             true);
 
-    TransactionServiceGrpc.newStub(channel).getTransactionTrees(request.toProto(), observer);
+    subscriptions.run(
+        () -> asyncTransactionService.getTransactionTrees(request.toProto(), observer));
     return storage;
   }
 
-  private synchronized void onMessage(
+  private void onMessage(
       TransactionServiceOuterClass.GetTransactionTreesResponse response,
       String party,
       InMemoryMessageStorage<TreeEvent> storage) {
@@ -204,51 +305,165 @@ public class DefaultLedgerAdapter {
     }
   }
 
+  private void onMultiplexedEvent(String party, TreeEvent event) {
+    InMemoryMessageStorage<TreeEvent> storage = storageByParty.get(party);
+    if (channel != null && storage != null) {
+      Dump.dump(wireLogger, new ObserveEvent(party, event));
+      storage.onMessage(event);
+    }
+  }
+
   private void submit(Party party, Command command) {
-    Instant let = timeProvider.getCurrentTime();
-    Instant mrt = let.plus(TTL);
+    submit(party, Collections.singletonList(command));
+  }
+
+  private void submit(Party party, List<? extends Command> commands) {
     String cmdId = UUID.randomUUID().toString();
+    List<CommandEvent> events = new ArrayList<>(commands.size());
+    for (Command command : commands) {
+      CommandEvent event = new CommandEvent(cmdId, party.getValue(), command);
+      events.add(event);
+      Dump.dump(wireLogger, event);
+    }
+    commandService.submitAndWait(submitRequest(cmdId, party, commands));
+    events.forEach(event -> Dump.dump(interactionLogger, event));
+  }
+
+  /**
+   * Limits the number of commands submitted in a single transaction by {@link #submitBatch(Party,
+   * List)}.
+   */
+  public void setMaxCommandsPerTransaction(int maxCommandsPerTransaction) {
+    require(maxCommandsPerTransaction > 0, "A transaction must contain at least one command.");
+    this.maxCommandsPerTransaction = maxCommandsPerTransaction;
+  }
+
+  public void createContracts(Party party, Identifier templateId, List<DamlRecord> payloads) {
+    logger.debug("Attempting to create {} contracts {}", payloads.size(), templateId);
+    List<Command> commands = new ArrayList<>(payloads.size());
+    for (DamlRecord payload : payloads) {
+      commands.add(new CreateCommand(templateId, payload));
+    }
+    submitBatch(party, commands);
+  }
+
+  /**
+   * Submits the commands in as few transactions as possible. Each transaction contains at most
+   * {@code maxCommandsPerTransaction} commands and is committed atomically; if one of them fails,
+   * the transactions submitted before it stay committed.
+   */
+  public void submitBatch(Party party, List<? extends Command> commands) {
+    for (List<? extends Command> chunk : Lists.partition(commands, maxCommandsPerTransaction)) {
+      submit(party, chunk);
+    }
+  }
+
+  /**
+   * Limits the number of asynchronous submissions waiting for their completion. Once the limit is
+   * reached, the submitting thread blocks until an earlier submission has completed.
+   */
+  public void setMaxCommandsInFlight(int maxCommandsInFlight) {
+    require(maxCommandsInFlight > 0, "At least one command must be allowed in flight.");
+    this.commandsInFlight = new Semaphore(maxCommandsInFlight);
+  }
+
+  public CompletableFuture<String> createContractAsync(
+      Party party, Identifier templateId, DamlRecord payload) {
+    logger.debug("Attempting to create a contract {}", templateId);
+    return submitAsync(party, new CreateCommand(templateId, payload));
+  }
+
+  public CompletableFuture<String> exerciseChoiceAsync(
+      Party party, Identifier templateId, ContractId contractId, String choice, Value payload) {
+    return exerciseChoiceAsync(
+        party, new ExerciseCommand(templateId, contractId.getValue(), choice, payload));
+  }
+
+  public CompletableFuture<String> exerciseChoiceAsync(
+      Party party, ExerciseCommand exerciseCommand) {
+    logger.debug(
+        "Attempting to create exercise {} on {} in contract {}",
+        exerciseCommand.getChoice(),
+        exerciseCommand.getTemplateId(),
+        exerciseCommand.getContractId());
+    return submitAsync(party, exerciseCommand);
+  }
 
-    CommandServiceOuterClass.SubmitAndWaitRequest.Builder commands =
-        CommandServiceOuterClass.SubmitAndWaitRequest.newBuilder()
-            .setCommands(
-                CommandsOuterClass.Commands.newBuilder()
-                    .setLedgerId(ledgerId)
-                    .setWorkflowId(String.format("%s:%s", APP_ID, cmdId))
-                    .setApplicationId(APP_ID)
-                    .setCommandId(cmdId)
-                    .setParty(party.getValue())
-                    .addCommands(command.toProtoCommand()));
+  /**
+   * Submits a command without waiting for its completion. The returned future completes with the
+   * command id once the resulting transaction has been committed, or exceptionally if the command
+   * was rejected.
+   */
+  public CompletableFuture<String> submitAsync(Party party, Command command) {
+    String cmdId = UUID.randomUUID().toString();
+    CommandServiceOuterClass.SubmitAndWaitRequest request =
+        submitRequest(cmdId, party, Collections.singletonList(command));
     CommandEvent event = new CommandEvent(cmdId, party.getValue(), command);
     Dump.dump(wireLogger, event);
-    CommandServiceGrpc.newBlockingStub(channel).submitAndWait(commands.build());
-    Dump.dump(interactionLogger, event);
-  }
 
-  public Hashtable<String, Party> getMapKnownParties() {
-    PartyManagementServiceOuterClass.ListKnownPartiesResponse listOfParties =
-        PartyManagementServiceGrpc.newBlockingStub(channel)
-            .listKnownParties(
-                PartyManagementServiceOuterClass.ListKnownPartiesRequest.newBuilder().build());
-    Hashtable<String, Party> mapPartyId = new Hashtable<>();
-    listOfParties
-        .getPartyDetailsList()
-        .forEach(p -> mapPartyId.put((p.getDisplayName()), new Party(p.getParty())));
-    return mapPartyId;
-  }
-
-  public void allocatePartyOnLedger(String p) {
+    Semaphore window = commandsInFlight;
+    window.acquireUninterruptibly();
+    CompletableFuture<String> result = new CompletableFuture<>();
+    ListenableFuture<Empty> response;
     try {
-      Thread.sleep(5000);
-    } catch (InterruptedException e) {
-      throw new RuntimeException(e);
+      response = asyncCommandService.submitAndWait(request);
+    } catch (RuntimeException e) {
+      window.release();
+      throw e;
     }
-    PartyManagementServiceGrpc.newBlockingStub(channel)
-        .allocateParty(
-            PartyManagementServiceOuterClass.AllocatePartyRequest.newBuilder()
-                .setPartyIdHint(p)
-                .setDisplayName(p)
-                .build());
+    Futures.addCallback(
+        response,
+        new FutureCallback<>() {
+          public void onSuccess(Empty ignored) {
+            window.release();
+            Dump.dump(interactionLogger, event);
+            result.complete(cmdId);
+          }
+
+          public void onFailure(Throwable t) {
+            window.release();
+            result.completeExceptionally(t);
+          }
+        },
+        MoreExecutors.directExecutor());
+    return result;
+  }
+
+  private CommandServiceOuterClass.SubmitAndWaitRequest submitRequest(
+      String cmdId, Party party, List<? extends Command> commands) {
+    CommandsOuterClass.Commands.Builder protoCommands =
+        CommandsOuterClass.Commands.newBuilder()
+            .setLedgerId(ledgerId)
+            .setWorkflowId(String.format("%s:%s", APP_ID, cmdId))
+            .setApplicationId(APP_ID)
+            .setCommandId(cmdId)
+            .setParty(party.getValue());
+    for (Command command : commands) {
+      protoCommands.addCommands(command.toProtoCommand());
+    }
+    return CommandServiceOuterClass.SubmitAndWaitRequest.newBuilder()
+        .setCommands(protoCommands)
+        .build();
+  }
+
+  public Hashtable<String, Party> getMapKnownParties() {
+    return partyAllocator.knownParties();
+  }
+
+  public Party allocatePartyOnLedger(String p) {
+    return allocatePartiesOnLedger(Collections.singletonList(p)).get(p);
+  }
+
+  /** Allocates a new party for each hint, all at once. The result is keyed by the hint. */
+  public Map<String, Party> allocatePartiesOnLedger(Collection<String> hints) {
+    return partyAllocator.allocate(hints);
+  }
+
+  /**
+   * Allocates the parties which are not known yet, and returns all known parties by display name.
+   */
+  public Hashtable<String, Party> allocateMissingParties(Collection<String> displayNames) {
+    return partyAllocator.allocateMissing(displayNames);
   }
 
   public Instant getCurrentTime() {
@@ -259,6 +474,88 @@ public class DefaultLedgerAdapter {
     timeProvider.setCurrentTime(time);
   }
 
+  /**
+   * Runs the trigger once the time has been advanced to or past {@code time} by {@link
+   * #advanceTime} or {@link #runUntil}. The trigger receives the time of that step.
+   */
+  public void scheduleAt(Instant time, Consumer<Instant> trigger) {
+    synchronized (triggers) {
+      triggers.computeIfAbsent(time, t -> new ArrayList<>()).add(trigger);
+    }
+  }
+
+  /**
+   * Advances the time through the given increasing steps. After each step, the triggers which have
+   * become due and then {@code atEachStep} are run with the time of the step. The time of each
+   * step is sent without waiting for the time stream to report it, except for the last one.
+   */
+  public void advanceTime(Iterable<Instant> steps, Consumer<Instant> atEachStep) {
+    Iterator<Instant> it = steps.iterator();
+    while (it.hasNext()) {
+      Instant step = it.next();
+      if (it.hasNext()) {
+        timeProvider.advanceTo(step);
+      } else {
+        timeProvider.setCurrentTime(step);
+      }
+      runTriggersDueAt(step);
+      atEachStep.accept(step);
+    }
+  }
+
+  /**
+   * Advances the time to {@code end} in multiples of {@code step} from the current time, skipping
+   * the steps at which no trigger scheduled with {@link #scheduleAt} is due. Triggers may schedule
+   * further triggers, which are run in the same pass if they are due by {@code end}.
+   */
+  public void runUntil(Instant end, Duration step) {
+    require(!step.isNegative() && !step.isZero(), "The time step must be positive.");
+    Instant start = timeProvider.getCurrentTime();
+    require(start != null, "The current time is not known yet.");
+    Instant previous = start;
+    while (end.isAfter(previous)) {
+      Instant next = nextStep(start, step, firstDueAfter(previous, end), end);
+      if (next.equals(end)) {
+        timeProvider.setCurrentTime(next);
+      } else {
+        timeProvider.advanceTo(next);
+      }
+      runTriggersDueAt(next);
+      previous = next;
+    }
+  }
+
+  /**
+   * The first time on the grid of {@code step} from {@code start} at or after {@code due}, capped
+   * at {@code end}. Without anything due, it is {@code end}.
+   */
+  static Instant nextStep(Instant start, Duration step, Instant due, Instant end) {
+    if (due == null) {
+      return end;
+    }
+    long elapsed = Duration.between(start, due).toNanos();
+    long stepNanos = step.toNanos();
+    Instant onGrid = start.plusNanos((elapsed + stepNanos - 1) / stepNanos * stepNanos);
+    return onGrid.isAfter(end) ? end : onGrid;
+  }
+
+  private Instant firstDueAfter(Instant after, Instant end) {
+    synchronized (triggers) {
+      Instant due = triggers.higherKey(after);
+      return due == null || due.isAfter(end) ? null : due;
+    }
+  }
+
+  private void runTriggersDueAt(Instant time) {
+    List<Consumer<Instant>> due = new ArrayList<>();
+    synchronized (triggers) {
+      NavigableMap<Instant, List<Consumer<Instant>>> reached = triggers.headMap(time, true);
+      reached.values().forEach(due::addAll);
+      reached.clear();
+    }
+    due.forEach(trigger -> trigger.accept(time));
+  }
+
   private static final String key = "internal-cid-query";
   private static final String recordKey = "internal-recordKey";
 
@@ -0,0 +1,210 @@
+/*
+ * Copyright 2020 Digital Asset (Switzerland) GmbH and/or its affiliates
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.daml.extensions.testing.ledger;
+
+import static com.daml.extensions.testing.cucumber.utils.TableUtils.fieldsToArgs;
+import static com.daml.extensions.testing.utils.PackageUtils.findTemplate;
+import static com.daml.extensions.testing.utils.Preconditions.require;
+
+import com.daml.daml_lf_dev.DamlLf1;
+import com.daml.extensions.testing.utils.PackageUtils;
+import com.daml.ledger.javaapi.data.Command;
+import com.daml.ledger.javaapi.data.CreateCommand;
+import com.daml.ledger.javaapi.data.DamlRecord;
+import com.daml.ledger.javaapi.data.Identifier;
+import com.daml.ledger.javaapi.data.Party;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * Ledger setup replayed through the connection of the sandbox manager, as a lighter alternative to
+ * a DAML setup script: no second JVM is started and the DAR is not loaded again. The parties are
+ * allocated together with the configured parties, and consecutive contracts of the same party are
+ * created in batches.
+ *
+ * <p>A fixture is built with {@link #builder()} or loaded from a file with {@link #load(Path)}:
+ *
+ * <pre>
+ * # parties are referred to by display name
+ * party Alice
+ * party Bob
+ * create Alice PingPong:Ping
+ *   sender = Alice
+ *   receiver = Bob
+ *   count = 0
+ * </pre>
+ */
+public class LedgerFixture {
+  private final List<String> parties;
+  private final List<Creation> creations;
+
+  private LedgerFixture(List<String> parties, List<Creation> creations) {
+    this.parties = Collections.unmodifiableList(parties);
+    this.creations = Collections.unmodifiableList(creations);
+  }
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  public static LedgerFixture load(Path file) throws IOException {
+    return parse(Files.readAllLines(file, StandardCharsets.UTF_8));
+  }
+
+  public static LedgerFixture parse(List<String> lines) {
+    Builder builder = builder();
+    String party = null;
+    String template = null;
+    Map<String, String> fields = null;
+    for (int i = 0; i < lines.size(); i++) {
+      String line = lines.get(i).trim();
+      if (line.isEmpty() || line.startsWith("#")) {
+        continue;
+      }
+      String[] words = line.split("\\s+");
+      if (words[0].equals("party") && words.length == 2) {
+        builder.party(words[1]);
+      } else if (words[0].equals("create") && words.length == 3) {
+        if (template != null) {
+          builder.create(party, template, fields);
+        }
+        party = words[1];
+        template = words[2];
+        fields = new LinkedHashMap<>();
+      } else if (line.contains("=") && template != null) {
+        int separator = line.indexOf('=');
+        fields.put(line.substring(0, separator).trim(), line.substring(separator + 1).trim());
+      } else {
+        throw new IllegalArgumentException(
+            String.format("Malformed fixture line %d: '%s'", i + 1, lines.get(i)));
+      }
+    }
+    if (template != null) {
+      builder.create(party, template, fields);
+    }
+    return builder.build();
+  }
+
+  /** The display names of the parties the fixture needs. */
+  public List<String> getParties() {
+    return parties;
+  }
+
+  /** Creates the contracts, once the parties of the fixture have been allocated. */
+  public void apply(SandboxManager sandboxManager) throws IOException {
+    DefaultLedgerAdapter ledgerAdapter = sandboxManager.getLedgerAdapter();
+    apply(sandboxManager, sandboxManager::getPartyId, ledgerAdapter::submitBatch);
+  }
+
+  void apply(
+      SandboxManager sandboxManager,
+      Function<String, Party> partyIds,
+      BiConsumer<Party, List<Command>> submitBatch)
+      throws IOException {
+    String batchParty = null;
+    List<Command> batch = new ArrayList<>();
+    for (Creation creation : creations) {
+      if (!creation.party.equals(batchParty) && !batch.isEmpty()) {
+        submitBatch.accept(partyIds.apply(batchParty), batch);
+        batch = new ArrayList<>();
+      }
+      batchParty = creation.party;
+      batch.add(creation.toCommand(sandboxManager));
+    }
+    if (!batch.isEmpty()) {
+      submitBatch.accept(partyIds.apply(batchParty), batch);
+    }
+  }
+
+  public static class Builder {
+    private final Set<String> parties = new LinkedHashSet<>();
+    private final List<Creation> creations = new ArrayList<>();
+
+    public Builder party(String displayName) {
+      parties.add(displayName);
+      return this;
+    }
+
+    public Builder create(String party, Identifier templateId, DamlRecord payload) {
+      parties.add(party);
+      creations.add(new Creation(party, new CreateCommand(templateId, payload)));
+      return this;
+    }
+
+    /**
+     * Creates a contract from field values given as text, converted according to the field types of
+     * the template. Party fields are given by display name.
+     */
+    public Builder create(String party, String moduleAndEntityName, Map<String, String> fields) {
+      parties.add(party);
+      creations.add(new Creation(party, moduleAndEntityName, new LinkedHashMap<>(fields)));
+      return this;
+    }
+
+    public LedgerFixture build() {
+      return new LedgerFixture(new ArrayList<>(parties), new ArrayList<>(creations));
+    }
+  }
+
+  private static class Creation {
+    private final String party;
+    private final CreateCommand command;
+    private final String moduleAndEntityName;
+    private final Map<String, String> fields;
+
+    Creation(String party, CreateCommand command) {
+      this.party = party;
+      this.command = command;
+      this.moduleAndEntityName = null;
+      this.fields = null;
+    }
+
+    Creation(String party, String moduleAndEntityName, Map<String, String> fields) {
+      this.party = party;
+      this.command = null;
+      this.moduleAndEntityName = moduleAndEntityName;
+      this.fields = fields;
+    }
+
+    CreateCommand toCommand(SandboxManager sandboxManager) throws IOException {
+      if (command != null) {
+        return command;
+      }
+      PackageUtils.TemplateType template =
+          findTemplate(sandboxManager.getClient(), moduleAndEntityName);
+      List<String> args = new ArrayList<>(template.createFields.size());
+      for (DamlLf1.FieldWithType field : template.createFields) {
+        String value = fields.get(field.getFieldStr());
+        require(
+            value != null,
+            String.format(
+                "Fixture for %s has no value for field '%s'.",
+                moduleAndEntityName, field.getFieldStr()));
+        args.add(value);
+      }
+      require(
+          fields.size() == args.size(),
+          String.format(
+              "Fixture for %s has fields which are not in the template: %s",
+              moduleAndEntityName, fields.keySet()));
+      return new CreateCommand(
+          template.identifier, fieldsToArgs(args, template.createFields, sandboxManager));
+    }
+  }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2020 Digital Asset (Switzerland) GmbH and/or its affiliates
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.daml.extensions.testing.ledger;
+
+import com.daml.extensions.testing.utils.OS;
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * On-disk ledger stores captured right after a setup script has run, so that later sandboxes can
+ * start from a copy of the store instead of running the script again. Snapshots are grouped by a
+ * {@link SandboxPool.Key} describing everything that influences the result of the setup, and are
+ * deleted when the JVM exits.
+ */
+public class LedgerSnapshots {
+  private static final Logger logger = LoggerFactory.getLogger(LedgerSnapshots.class);
+  private static final LedgerSnapshots SHARED = createShared();
+
+  private final ConcurrentHashMap<SandboxPool.Key, CompletableFuture<Path>> snapshots =
+      new ConcurrentHashMap<>();
+  private Path root;
+
+  /** Writes a ledger store to the given, empty directory. */
+  @FunctionalInterface
+  public interface SnapshotWriter {
+    void write(Path store) throws TimeoutException, IOException, InterruptedException;
+  }
+
+  public static LedgerSnapshots shared() {
+    return SHARED;
+  }
+
+  private static LedgerSnapshots createShared() {
+    LedgerSnapshots snapshots = new LedgerSnapshots();
+    Runtime.getRuntime()
+        .addShutdownHook(new Thread(snapshots::deleteAll, "ledger-snapshots-cleanup"));
+    return snapshots;
+  }
+
+  /**
+   * Returns the snapshot for the key, writing it first if there is none yet. Concurrent callers
+   * with the same key wait for a single writer.
+   */
+  public Path getOrCreate(SandboxPool.Key key, SnapshotWriter writer)
+      throws TimeoutException, IOException, InterruptedException {
+    CompletableFuture<Path> created = new CompletableFuture<>();
+    CompletableFuture<Path> existing = snapshots.putIfAbsent(key, created);
+    if (existing != null) {
+      try {
+        return existing.get();
+      } catch (ExecutionException e) {
+        // the failed attempt has been removed, the next caller writes the snapshot again
+        return getOrCreate(key, writer);
+      }
+    }
+    try {
+      Path store = Files.createTempDirectory(root(), "snapshot-");
+      logger.info("Capturing ledger snapshot for {} in {}", key, store);
+      writer.write(store);
+      created.complete(store);
+      return store;
+    } catch (TimeoutException | IOException | InterruptedException | RuntimeException e) {
+      snapshots.remove(key, created);
+      created.completeExceptionally(e);
+      throw e;
+    }
+  }
+
+  /** Copies a snapshot into a new ledger store, sharing blocks with it where supported. */
+  public Path restore(Path snapshot) throws IOException, InterruptedException {
+    Path store = Files.createTempDirectory(root(), "ledger-");
+    if (!OS.isWindows() && cloneWithCp(snapshot, store)) {
+      return store;
+    }
+    FileUtils.copyDirectory(snapshot.toFile(), store.toFile());
+    return store;
+  }
+
+  /** Deletes a ledger store returned by {@link #restore(Path)}. */
+  public void discard(Path store) {
+    FileUtils.deleteQuietly(store.toFile());
+  }
+
+  /**
+   * Copies with {@code cp --reflink=auto}, which clones the files on copy-on-write file systems and
+   * copies them otherwise.
+   */
+  private static boolean cloneWithCp(Path from, Path to) throws IOException, InterruptedException {
+    Process cp =
+        new ProcessBuilder(
+                "cp", "-R", "--reflink=auto", from.toAbsolutePath() + "/.", to.toString())
+            .redirectErrorStream(true)
+            .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+            .start();
+    if (cp.waitFor() == 0) {
+      return true;
+    }
+    logger.debug("cp --reflink=auto is not available, copying {} in Java", from);
+    FileUtils.cleanDirectory(to.toFile());
+    return false;
+  }
+
+  private synchronized Path root() throws IOException {
+    if (root == null) {
+      root = Files.createTempDirectory("daml-ledger-snapshots");
+    }
+    return root;
+  }
+
+  private synchronized void deleteAll() {
+    if (root != null) {
+      FileUtils.deleteQuietly(root.toFile());
+    }
+  }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2020 Digital Asset (Switzerland) GmbH and/or its affiliates
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.daml.extensions.testing.ledger;
+
+import com.daml.ledger.api.v1.admin.PartyManagementServiceGrpc;
+import com.daml.ledger.api.v1.admin.PartyManagementServiceOuterClass;
+import com.daml.ledger.javaapi.data.Party;
+import com.google.common.base.Stopwatch;
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import io.grpc.ManagedChannel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Allocates parties in one batch: all allocation requests are sent concurrently, and the list of
+ * known parties is fetched once before and once after the allocation.
+ */
+public class PartyAllocator {
+  private static final Logger logger = LoggerFactory.getLogger(PartyAllocator.class);
+  private static final Duration ALLOCATION_TIMEOUT = Duration.ofSeconds(30);
+  private static final Duration MIN_BACKOFF = Duration.ofMillis(10);
+  private static final Duration MAX_BACKOFF = Duration.ofMillis(500);
+
+  private final PartyManagementServiceGrpc.PartyManagementServiceFutureStub asyncStub;
+  private final PartyManagementServiceGrpc.PartyManagementServiceBlockingStub blockingStub;
+
+  public PartyAllocator(ManagedChannel channel) {
+    this.asyncStub = PartyManagementServiceGrpc.newFutureStub(channel);
+    this.blockingStub = PartyManagementServiceGrpc.newBlockingStub(channel);
+  }
+
+  /** Returns the known parties by display name. */
+  public Hashtable<String, Party> knownParties() {
+    PartyManagementServiceOuterClass.ListKnownPartiesResponse listOfParties =
+        blockingStub.listKnownParties(
+            PartyManagementServiceOuterClass.ListKnownPartiesRequest.newBuilder().build());
+    Hashtable<String, Party> mapPartyId = new Hashtable<>();
+    listOfParties
+        .getPartyDetailsList()
+        .forEach(p -> mapPartyId.put(p.getDisplayName(), new Party(p.getParty())));
+    return mapPartyId;
+  }
+
+  /**
+   * Allocates the parties with the given display names which are not known yet, and returns all
+   * known parties by display name once every requested party is visible.
+   */
+  public Hashtable<String, Party> allocateMissing(Collection<String> displayNames) {
+    Hashtable<String, Party> known = knownParties();
+    List<String> missing = new ArrayList<>();
+    for (String displayName : displayNames) {
+      if (!known.containsKey(displayName)) {
+        missing.add(displayName);
+      }
+    }
+    if (missing.isEmpty()) {
+      return known;
+    }
+    allocate(missing);
+    return awaitKnown(displayNames);
+  }
+
+  /** Allocates a new party for each hint (also used as display name), keyed by the hint. */
+  public Map<String, Party> allocate(Collection<String> hints) {
+    List<ListenableFuture<PartyManagementServiceOuterClass.AllocatePartyResponse>> requests =
+        new ArrayList<>();
+    for (String hint : hints) {
+      requests.add(
+          asyncStub.allocateParty(
+              PartyManagementServiceOuterClass.AllocatePartyRequest.newBuilder()
+                  .setPartyIdHint(hint)
+                  .setDisplayName(hint)
+                  .build()));
+    }
+    logger.debug("Allocating {} parties", requests.size());
+    List<PartyManagementServiceOuterClass.AllocatePartyResponse> responses;
+    try {
+      responses =
+          Futures.allAsList(requests).get(ALLOCATION_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS);
+    } catch (ExecutionException e) {
+      Throwables.throwIfUnchecked(e.getCause());
+      throw new IllegalStateException("Failed to allocate parties " + hints, e.getCause());
+    } catch (TimeoutException e) {
+      throw new IllegalStateException("Timed out while allocating parties " + hints, e);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while allocating parties " + hints, e);
+    }
+    Map<String, Party> allocated = new LinkedHashMap<>();
+    Iterator<PartyManagementServiceOuterClass.AllocatePartyResponse> response =
+        responses.iterator();
+    for (String hint : hints) {
+      allocated.put(hint, new Party(response.next().getPartyDetails().getParty()));
+    }
+    return allocated;
+  }
+
+  private Hashtable<String, Party> awaitKnown(Collection<String> displayNames) {
+    Stopwatch time = Stopwatch.createStarted();
+    Duration backoff = MIN_BACKOFF;
+    while (true) {
+      Hashtable<String, Party> known = knownParties();
+      if (known.keySet().containsAll(displayNames)) {
+        return known;
+      }
+      if (time.elapsed().compareTo(ALLOCATION_TIMEOUT) > 0) {
+        throw new IllegalStateException("Allocated parties are not visible: " + displayNames);
+      }
+      try {
+        Thread.sleep(backoff.toMillis());
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IllegalStateException("Interrupted while waiting for parties", e);
+      }
+      backoff = backoff.multipliedBy(2);
+      if (backoff.compareTo(MAX_BACKOFF) > 0) {
+        backoff = MAX_BACKOFF;
+      }
+    }
+  }
+}
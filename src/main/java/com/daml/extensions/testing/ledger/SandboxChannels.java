@@ -0,0 +1,68 @@
+/*
+ * Copyright 2020 Digital Asset (Switzerland) GmbH and/or its affiliates
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.daml.extensions.testing.ledger;
+
+import com.google.common.base.Suppliers;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.grpc.netty.NettyChannelBuilder;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioSocketChannel;
+
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Builds the gRPC channels to sandboxes. All channels of the JVM share one Netty event loop group
+ * and one callback executor, instead of each channel creating its own threads.
+ */
+public class SandboxChannels {
+  // ledger API servers reject keepalive pings more frequent than every five minutes by default
+  private static final Duration KEEP_ALIVE_TIME = Duration.ofMinutes(5);
+  private static final int FLOW_CONTROL_WINDOW = 8 * 1024 * 1024;
+
+  private static final Supplier<EventLoopGroup> eventLoopGroup =
+      Suppliers.memoize(
+          () ->
+              new NioEventLoopGroup(
+                  0,
+                  new ThreadFactoryBuilder()
+                      .setDaemon(true)
+                      .setNameFormat("sandbox-grpc-io-%d")
+                      .build()));
+  private static final Supplier<ExecutorService> executor =
+      Suppliers.memoize(
+          () ->
+              Executors.newCachedThreadPool(
+                  new ThreadFactoryBuilder()
+                      .setDaemon(true)
+                      .setNameFormat("sandbox-grpc-%d")
+                      .build()));
+
+  /**
+   * A channel builder for the sandbox on the given port. With {@code directExecutor}, responses are
+   * handled on the event loop itself; this saves a thread hop per message, but a callback which
+   * blocks stalls every channel of the JVM.
+   */
+  public static NettyChannelBuilder builder(int port, boolean directExecutor) {
+    NettyChannelBuilder builder =
+        NettyChannelBuilder.forAddress("localhost", port)
+            .usePlaintext()
+            .channelType(NioSocketChannel.class)
+            .eventLoopGroup(eventLoopGroup.get())
+            .keepAliveTime(KEEP_ALIVE_TIME.toMillis(), TimeUnit.MILLISECONDS)
+            .flowControlWindow(FLOW_CONTROL_WINDOW)
+            .maxInboundMessageSize(Integer.MAX_VALUE);
+    return directExecutor
+        ? builder.executor(MoreExecutors.directExecutor())
+        : builder.executor(executor.get());
+  }
+}
@@ -11,31 +11,51 @@ import com.daml.extensions.testing.ledger.clock.SandboxTimeProvider;
 import com.daml.extensions.testing.ledger.clock.SystemTimeProvider;
 import com.daml.extensions.testing.ledger.clock.TimeProvider;
 import com.daml.extensions.testing.store.DefaultValueStore;
+import com.daml.extensions.testing.store.RetentionPolicy;
+import com.daml.extensions.testing.utils.FreePorts;
+import com.daml.extensions.testing.utils.PackageUtils;
+import com.daml.extensions.testing.utils.ProcessOutput;
 import com.daml.ledger.api.v1.LedgerIdentityServiceGrpc;
 import com.daml.ledger.api.v1.LedgerIdentityServiceOuterClass;
 import com.daml.ledger.api.v1.testing.TimeServiceGrpc;
+import com.daml.ledger.javaapi.data.LedgerOffset;
 import com.daml.ledger.javaapi.data.Party;
 import com.daml.ledger.rxjava.DamlLedgerClient;
+import com.google.common.base.Stopwatch;
+import com.google.common.base.Suppliers;
 import io.grpc.ManagedChannel;
-import io.grpc.ManagedChannelBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.nio.file.Path;
 import java.time.Duration;
+import java.util.Arrays;
 import java.util.Hashtable;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.function.BiConsumer;
 import java.util.function.Supplier;
+import java.util.regex.Pattern;
 
 import static com.daml.extensions.testing.utils.SandboxUtils.getSandboxPort;
 import static com.daml.extensions.testing.utils.SandboxUtils.waitForSandbox;
+import static java.util.regex.Pattern.CASE_INSENSITIVE;
 
 public class SandboxManager {
   private static final Logger logger = LoggerFactory.getLogger(SandboxManager.class);
+  private static final Pattern SANDBOX_READY =
+      Pattern.compile("sandbox is ready", CASE_INSENSITIVE);
+  private static final int FAILURE_OUTPUT_LINES = 50;
+  private static final String ADDRESS_IN_USE = "Address already in use";
+  private static final int MAX_START_ATTEMPTS = 3;
   private final Path damlRoot;
   private int sandboxPort;
 
@@ -56,6 +76,18 @@ public class SandboxManager {
   private DamlLedgerClient ledgerClient;
   private DefaultLedgerAdapter ledgerAdapter;
   private ManagedChannel channel;
+  private String connectedLedgerId;
+  private Supplier<TimeProvider> timeProviderFactory;
+  private int resetCount = 0;
+  private boolean multiplexedSubscription = false;
+  private RetentionPolicy retentionPolicy = RetentionPolicy.unbounded();
+  private Stopwatch sinceLaunch;
+  private Optional<Integer> reservedPort = Optional.empty();
+  private boolean snapshotSetup = false;
+  private Optional<Path> ledgerStore = Optional.empty();
+  private Optional<LedgerFixture> setupFixture = Optional.empty();
+  private boolean directExecutor = false;
+  private Duration timeToReady;
 
   public SandboxManager(
       Path damlRoot,
@@ -127,44 +159,139 @@ public class SandboxManager {
     return channel;
   }
 
+  /** The time from launching the sandbox process until it served its first request. */
+  public Duration getTimeToReady() {
+    return timeToReady;
+  }
+
+  /** Makes the ledger adapters observe all parties through a single transaction stream. */
+  public void setMultiplexedSubscription(boolean multiplexedSubscription) {
+    this.multiplexedSubscription = multiplexedSubscription;
+  }
+
+  /**
+   * Runs the setup script only once for all sandboxes with the same configuration, and starts each
+   * sandbox from a copy of the ledger as the script left it, see {@link LedgerSnapshots}.
+   */
+  public void setSnapshotSetup(boolean snapshotSetup) {
+    this.snapshotSetup = snapshotSetup;
+  }
+
+  /**
+   * Handles responses on the gRPC event loop instead of an executor, see {@link
+   * SandboxChannels#builder(int, boolean)}.
+   */
+  public void setDirectExecutor(boolean directExecutor) {
+    this.directExecutor = directExecutor;
+  }
+
+  /** Sets up the ledger in this JVM after each start, see {@link LedgerFixture}. */
+  public void setSetupFixture(LedgerFixture setupFixture) {
+    this.setupFixture = Optional.of(setupFixture);
+  }
+
+  /** Limits the unclaimed events the ledger adapters keep for each party. */
+  public void setRetentionPolicy(RetentionPolicy retentionPolicy) {
+    this.retentionPolicy = retentionPolicy;
+  }
+
+  /**
+   * Starts the sandbox on the custom port, or else on a free port. A free port may still be taken
+   * by another process before the sandbox binds it, in which case it is started again on another
+   * one.
+   */
   public void start() throws TimeoutException, IOException, InterruptedException {
     if (this.customPort.isPresent()) {
       start(this.customPort.get());
-    } else {
-      start(getSandboxPort());
+      return;
+    }
+    for (int attempt = 1; ; attempt++) {
+      int port = getSandboxPort();
+      reservedPort = Optional.of(port);
+      try {
+        start(port);
+        return;
+      } catch (PortInUseException e) {
+        if (attempt == MAX_START_ATTEMPTS) {
+          throw e;
+        }
+        logger.info("A port of sandbox {} is in use, starting it on another port", port);
+      }
     }
   }
 
+  /**
+   * Starts the sandbox on the given port. If it fails to start, everything started so far is
+   * stopped again before the failure is rethrown.
+   */
   public void start(int port) throws TimeoutException, IOException, InterruptedException {
-    startSandbox(port);
-    startCommChannels();
-    allocateParties();
-    mapParties();
+    try {
+      // template metadata is read from the DAR while the sandbox boots
+      CompletableFuture<Void> packageMetadata = PackageUtils.loadDarAsync(darPath);
+      boolean restored = restoreSnapshotIfConfigured(port);
+      startSandbox(port);
+      startCommChannels(!restored);
+      allocateParties();
+      awaitPackageMetadata(packageMetadata);
+      if (setupFixture.isPresent()) {
+        setupFixture.get().apply(this);
+      }
+    } catch (TimeoutException | IOException | InterruptedException | RuntimeException e) {
+      stop();
+      throw e;
+    }
   }
 
-  private void allocateParty(String partyName) {
-    ledgerAdapter.allocatePartyOnLedger(partyName);
+  private boolean restoreSnapshotIfConfigured(int port)
+      throws TimeoutException, IOException, InterruptedException {
+    if (!snapshotSetup || !isScriptConfigured()) {
+      return false;
+    }
+    Path snapshot =
+        LedgerSnapshots.shared().getOrCreate(snapshotKey(), store -> writeSnapshot(port, store));
+    ledgerStore = Optional.of(LedgerSnapshots.shared().restore(snapshot));
+    return true;
   }
 
-  private void allocateParties() {
-    for (String party : this.parties) {
-      getPartyIdOrAllocate(party);
+  /** Runs the setup script against a sandbox storing its ledger in the given directory. */
+  private void writeSnapshot(int port, Path store)
+      throws TimeoutException, IOException, InterruptedException {
+    ledgerStore = Optional.of(store);
+    try {
+      startSandbox(port);
+      connect();
+      runScriptIfConfigured();
+    } finally {
+      stopCommChannels();
+      stopSandbox();
+      ledgerStore = Optional.empty();
     }
   }
 
-  private void mapParties() {
-    this.partyIdHashTable = ledgerAdapter.getMapKnownParties();
+  /** Everything that determines the ledger right after the setup script has run. */
+  private SandboxPool.Key snapshotKey() {
+    return new SandboxPool.Key(
+        damlRoot.toAbsolutePath(),
+        darPath,
+        testModule,
+        testStartScript,
+        useWallclockTime,
+        ledgerId);
   }
 
-  private Party getPartyIdOrAllocate(String partyName) {
-    // <DisplayName:LPartyId>
-    mapParties();
+  private void awaitPackageMetadata(CompletableFuture<Void> packageMetadata)
+      throws InterruptedException {
     try {
-      getPartyId(partyName);
-    } catch (NullPointerException ignore) {
-      allocateParty(partyName);
+      packageMetadata.get();
+    } catch (ExecutionException e) {
+      logger.warn("Failed to read package metadata from {}, using the ledger", darPath, e);
     }
-    return partyIdHashTable.get(partyName);
+  }
+
+  private void allocateParties() {
+    Set<String> names = new LinkedHashSet<>(Arrays.asList(parties));
+    setupFixture.ifPresent(fixture -> names.addAll(fixture.getParties()));
+    this.partyIdHashTable = ledgerAdapter.allocateMissingParties(names);
   }
 
   public Party getPartyId(String partyName) {
@@ -178,6 +305,14 @@ public class SandboxManager {
   public void stop() {
     stopCommChannels();
     stopSandbox();
+    releasePort();
+    ledgerStore.ifPresent(LedgerSnapshots.shared()::discard);
+    ledgerStore = Optional.empty();
+  }
+
+  private void releasePort() {
+    reservedPort.ifPresent(FreePorts::release);
+    reservedPort = Optional.empty();
   }
 
   public void restart() throws TimeoutException, IOException, InterruptedException {
@@ -185,6 +320,37 @@ public class SandboxManager {
     start();
   }
 
+  public boolean isRunning() {
+    return ledgerAdapter != null;
+  }
+
+  /**
+   * Gives the next test a clean view of the ledger without restarting the sandbox. Each configured
+   * party is replaced by a freshly allocated party with a unique suffix (the display name keeps
+   * resolving via {@link #getPartyId(String)}), and a new ledger adapter is started from the
+   * current ledger end. The setup script is not run again.
+   */
+  public void reset() throws TimeoutException, IOException, InterruptedException {
+    if (!isRunning()) {
+      start();
+      return;
+    }
+    resetCount++;
+    Map<String, String> hints = new LinkedHashMap<>();
+    for (String party : parties) {
+      hints.put(party, String.format("%s-%d", party, resetCount));
+    }
+    Map<String, Party> allocated = ledgerAdapter.allocatePartiesOnLedger(hints.values());
+    Hashtable<String, Party> resetParties = new Hashtable<>(partyIdHashTable);
+    hints.forEach((party, hint) -> resetParties.put(party, allocated.get(hint)));
+    String[] resetPartyIds =
+        hints.values().stream().map(hint -> allocated.get(hint).getValue()).toArray(String[]::new);
+    ledgerAdapter.detach();
+    partyIdHashTable = resetParties;
+    ledgerAdapter = createLedgerAdapter();
+    ledgerAdapter.start(resetPartyIds, LedgerOffset.LedgerEnd.getInstance());
+  }
+
   public String getLedgerId() {
     return ledgerId.orElse(getClient().getLedgerId());
   }
@@ -195,52 +361,91 @@ public class SandboxManager {
 
   private void startSandbox(int port) throws IOException {
     sandboxPort = port;
+    sinceLaunch = Stopwatch.createStarted();
     sandboxRunner =
         SandboxRunnerFactory.getSandboxRunner(
-            damlRoot, darPath, sandboxPort, useWallclockTime, ledgerId, logLevel);
+            damlRoot, darPath, sandboxPort, useWallclockTime, ledgerId, logLevel, ledgerStore);
     sandboxRunner.startSandbox();
   }
 
-  private void startCommChannels() throws TimeoutException, IOException, InterruptedException {
-    channel =
-        ManagedChannelBuilder.forAddress("localhost", sandboxPort)
-            .usePlaintext()
-            .maxInboundMessageSize(Integer.MAX_VALUE)
-            .build();
-    DamlLedgerClient.Builder builder = DamlLedgerClient.newBuilder("localhost", sandboxPort);
-    ledgerClient = builder.build();
-    try {
-      waitForSandbox(ledgerClient, sandboxWaitTimeout, logger);
-    } catch (TimeoutException e) {
-      try {
-        sandboxRunner.stopSandbox();
-      } catch (Exception ee) {
-        throw new IOException("Unable to connect to sandbox, and failed to kill it.", ee);
-      }
-      throw e;
-    }
+  private void startCommChannels(boolean runScript)
+      throws TimeoutException, IOException, InterruptedException {
+    connect();
 
-    runScriptIfConfigured();
+    if (runScript) {
+      runScriptIfConfigured();
+    }
 
-    String ledgerId =
+    connectedLedgerId =
         LedgerIdentityServiceGrpc.newBlockingStub(channel)
             .getLedgerIdentity(
                 LedgerIdentityServiceOuterClass.GetLedgerIdentityRequest.newBuilder().build())
             .getLedgerId();
 
-    Supplier<TimeProvider> timeProviderFactory;
     if (useWallclockTime) {
       timeProviderFactory = SystemTimeProvider.factory();
     } else {
-      timeProviderFactory = SandboxTimeProvider.factory(TimeServiceGrpc.newStub(channel), ledgerId);
+      // one time provider per sandbox process, shared by the adapters created on reset
+      timeProviderFactory =
+          Suppliers.memoize(
+              SandboxTimeProvider.factory(TimeServiceGrpc.newStub(channel), connectedLedgerId));
     }
-    ledgerAdapter =
-        new DefaultLedgerAdapter(
-            new DefaultValueStore(), ledgerId, channel, observationTimeout, timeProviderFactory);
+    ledgerAdapter = createLedgerAdapter();
     ledgerAdapter.start(parties);
     setupApplication.accept(ledgerClient, channel);
   }
 
+  private void connect() throws TimeoutException, IOException, InterruptedException {
+    channel = SandboxChannels.builder(sandboxPort, directExecutor).build();
+    // the client builds its own channel from the builder, sharing the event loop and executor
+    ledgerClient =
+        DamlLedgerClient.newBuilder(SandboxChannels.builder(sandboxPort, directExecutor)).build();
+    try {
+      waitForSandbox(
+          channel,
+          ledgerClient,
+          sandboxWaitTimeout,
+          sandboxRunner.getOutput().awaitLine(SANDBOX_READY),
+          logger);
+      timeToReady = sinceLaunch.elapsed();
+      logger.info("Sandbox on port {} ready in {} ms", sandboxPort, timeToReady.toMillis());
+    } catch (TimeoutException | IllegalStateException e) {
+      ProcessOutput output = sandboxRunner.getOutput();
+      String tail = output.describeTail(FAILURE_OUTPUT_LINES);
+      boolean portInUse =
+          output.tail(FAILURE_OUTPUT_LINES).stream()
+              .anyMatch(line -> line.contains(ADDRESS_IN_USE));
+      try {
+        sandboxRunner.stopSandbox();
+      } catch (Exception ee) {
+        throw new IOException("Unable to connect to sandbox, and failed to kill it.", ee);
+      }
+      String message = String.format("%s%n%s", e.getMessage(), tail);
+      if (portInUse) {
+        throw new PortInUseException(message, e);
+      }
+      if (e instanceof TimeoutException) {
+        TimeoutException timeout = new TimeoutException(message);
+        timeout.initCause(e);
+        throw timeout;
+      }
+      throw new IOException(message, e);
+    }
+  }
+
+  private DefaultLedgerAdapter createLedgerAdapter() {
+    DefaultLedgerAdapter adapter =
+        new DefaultLedgerAdapter(
+            new DefaultValueStore(),
+            connectedLedgerId,
+            channel,
+            observationTimeout,
+            timeProviderFactory);
+    adapter.setMultiplexedSubscription(multiplexedSubscription);
+    adapter.setRetentionPolicy(retentionPolicy);
+    return adapter;
+  }
+
   private void stopCommChannels() {
     try {
       if (ledgerAdapter != null) {
@@ -268,6 +473,7 @@ public class SandboxManager {
     channel = null;
     ledgerAdapter = null;
     ledgerClient = null;
+    timeProviderFactory = null;
   }
 
   private void stopSandbox() {
@@ -281,8 +487,12 @@ public class SandboxManager {
     sandboxRunner = null;
   }
 
+  private boolean isScriptConfigured() {
+    return testModule.isPresent() && testStartScript.isPresent();
+  }
+
   private void runScriptIfConfigured() throws IOException, InterruptedException {
-    if (testModule.isPresent() && testStartScript.isPresent()) {
+    if (isScriptConfigured()) {
       DamlScriptRunner scriptRunner =
           new DamlScriptRunner.Builder()
               .damlRoot(damlRoot)
@@ -294,4 +504,11 @@ public class SandboxManager {
       scriptRunner.run();
     }
   }
+
+  /** The sandbox could not bind one of its ports. */
+  static class PortInUseException extends IOException {
+    PortInUseException(String message, Throwable cause) {
+      super(message, cause);
+    }
+  }
 }
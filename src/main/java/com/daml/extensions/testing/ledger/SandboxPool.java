@@ -0,0 +1,172 @@
+/*
+ * Copyright 2020 Digital Asset (Switzerland) GmbH and/or its affiliates
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.daml.extensions.testing.ledger;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+/**
+ * Keeps sandboxes started in the background, so that a test can lease one that is already running
+ * instead of waiting for a sandbox to boot. Sandboxes are grouped by a {@link Key} describing
+ * everything that influences the state of a freshly started sandbox. A leased sandbox is never
+ * reused: it is stopped when released and a new one is started in its place, unless the pool for
+ * its key is already full.
+ */
+public class SandboxPool {
+  private static final Logger logger = LoggerFactory.getLogger(SandboxPool.class);
+  private static final SandboxPool SHARED = createShared();
+
+  private final ExecutorService executor =
+      Executors.newCachedThreadPool(
+          new ThreadFactoryBuilder().setDaemon(true).setNameFormat("sandbox-pool-%d").build());
+  private final ConcurrentHashMap<Key, Slot> slots = new ConcurrentHashMap<>();
+
+  public static SandboxPool shared() {
+    return SHARED;
+  }
+
+  private static SandboxPool createShared() {
+    SandboxPool pool = new SandboxPool();
+    Runtime.getRuntime().addShutdownHook(new Thread(pool::shutdown, "sandbox-pool-shutdown"));
+    return pool;
+  }
+
+  /**
+   * Returns a started sandbox for the given key. On the first call for a key, {@code size}
+   * sandboxes are started in the background; later calls return one of them as soon as it is
+   * ready.
+   */
+  public SandboxManager lease(Key key, int size, Supplier<SandboxManager> factory)
+      throws TimeoutException, IOException, InterruptedException {
+    Slot slot = slots.computeIfAbsent(key, k -> new Slot(size, factory));
+    Future<SandboxManager> warm = slot.warm.poll();
+    if (warm == null) {
+      logger.debug("No warm sandbox available for {}, starting one", key);
+      warm = startInBackground(slot);
+    }
+    try {
+      return warm.get();
+    } catch (ExecutionException e) {
+      replenish(slot);
+      throw rethrow(e.getCause());
+    }
+  }
+
+  /** Stops a leased sandbox and starts a replacement for it, both in the background. */
+  public void release(Key key, SandboxManager manager) {
+    executor.execute(manager::stop);
+    Slot slot = slots.get(key);
+    if (slot != null) {
+      replenish(slot);
+    }
+  }
+
+  public void shutdown() {
+    executor.shutdown();
+    for (Slot slot : slots.values()) {
+      Future<SandboxManager> warm;
+      while ((warm = slot.warm.poll()) != null) {
+        try {
+          warm.get(1, TimeUnit.MINUTES).stop();
+        } catch (Exception e) {
+          logger.warn("Failed to stop pooled sandbox", e);
+        }
+      }
+    }
+  }
+
+  /**
+   * Starts another warm sandbox unless {@code size} of them are already waiting. Sandboxes started
+   * for a lease that found the pool empty are not replaced when released.
+   */
+  private void replenish(Slot slot) {
+    synchronized (slot) {
+      if (!executor.isShutdown() && slot.warm.size() < slot.size) {
+        slot.warm.add(startInBackground(slot));
+      }
+    }
+  }
+
+  private Future<SandboxManager> startInBackground(Slot slot) {
+    return executor.submit(
+        () -> {
+          SandboxManager manager = slot.factory.get();
+          try {
+            manager.start();
+          } catch (Exception e) {
+            manager.stop();
+            throw e;
+          }
+          return manager;
+        });
+  }
+
+  private static IOException rethrow(Throwable cause)
+      throws TimeoutException, IOException, InterruptedException {
+    if (cause instanceof TimeoutException) throw (TimeoutException) cause;
+    if (cause instanceof IOException) throw (IOException) cause;
+    if (cause instanceof InterruptedException) throw (InterruptedException) cause;
+    if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+    return new IOException("Failed to start pooled sandbox", cause);
+  }
+
+  private class Slot {
+    private final int size;
+    private final Supplier<SandboxManager> factory;
+    private final BlockingQueue<Future<SandboxManager>> warm = new LinkedBlockingQueue<>();
+
+    Slot(int size, Supplier<SandboxManager> factory) {
+      this.size = size;
+      this.factory = factory;
+      for (int i = 0; i < size; i++) {
+        warm.add(startInBackground(this));
+      }
+    }
+  }
+
+  /** Everything that determines the state of a sandbox right after it has been started. */
+  public static class Key {
+    private final List<Object> components;
+
+    public Key(Object... components) {
+      this.components = Arrays.asList(components);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (o == null || getClass() != o.getClass()) return false;
+      return components.equals(((Key) o).components);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(components);
+    }
+
+    @Override
+    public String toString() {
+      return "Key" + components;
+    }
+  }
+}
@@ -7,25 +7,46 @@
 package com.daml.extensions.testing.ledger;
 
 import com.daml.extensions.testing.junit5.LogLevel;
+import com.daml.extensions.testing.utils.FreePorts;
+import com.daml.extensions.testing.utils.ProcessOutput;
+import com.daml.extensions.testing.utils.RotatingLogFile;
+import com.google.common.collect.ImmutableMap;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 public abstract class SandboxRunner {
+  private static final Path LOG_ROOT = Paths.get("integration-test-logs");
+  // the sandbox opens these ports besides the ledger API; defaults would collide between sandboxes
+  private static final List<String> AUXILIARY_PORT_OPTIONS =
+      Arrays.asList("--admin-api-port", "--domain-public-port", "--domain-admin-port");
+  // the nodes of the sandbox whose storage is kept in the ledger store, with their database names
+  private static final Map<String, String> STORED_NODES =
+      ImmutableMap.of("participants.sandbox", "participant", "domains.local", "domain");
+  // the log directory number of each running sandbox by its ledger API port, see logDirectory
+  private static final Map<Integer, Integer> logSlots = new HashMap<>();
   private final Logger logger = LoggerFactory.getLogger(getClass());
   private final Path relativeDarPath;
   private final Integer sandboxPort;
   private final boolean useWallclockTime;
   private final Optional<String> ledgerId;
   private final Optional<LogLevel> logLevel;
+  private final Optional<Path> ledgerStore;
   private final Path damlRoot;
   private Process sandbox;
+  private ProcessOutput output;
+  private List<Integer> auxiliaryPorts = Collections.emptyList();
 
   SandboxRunner(
       Path damlRoot,
@@ -33,13 +54,15 @@ public abstract class SandboxRunner {
       Integer sandboxPort,
       boolean useWallclockTime,
       Optional<String> ledgerId,
-      Optional<LogLevel> logLevel) {
+      Optional<LogLevel> logLevel,
+      Optional<Path> ledgerStore) {
     this.damlRoot = damlRoot;
     this.relativeDarPath = relativeDarPath;
     this.sandboxPort = sandboxPort;
     this.useWallclockTime = useWallclockTime;
     this.ledgerId = ledgerId;
     this.logLevel = logLevel;
+    this.ledgerStore = ledgerStore;
   }
 
   private List<String> getDamlSandboxStarterCommand() {
@@ -49,6 +72,10 @@ public abstract class SandboxRunner {
     addCustomCommands(commands);
     commands.add("--port");
     commands.add(sandboxPort.toString());
+    for (int i = 0; i < AUXILIARY_PORT_OPTIONS.size(); i++) {
+      commands.add(AUXILIARY_PORT_OPTIONS.get(i));
+      commands.add(auxiliaryPorts.get(i).toString());
+    }
     commands.add(useWallclockTime ? "" : "--static-time");
     ledgerId.ifPresent(
         value -> {
@@ -60,6 +87,19 @@ public abstract class SandboxRunner {
           commands.add("--log-level-root");
           commands.add(value.toString());
         });
+    ledgerStore.ifPresent(
+        store ->
+            STORED_NODES.forEach(
+                (node, database) -> {
+                  commands.add("-C");
+                  commands.add(String.format("canton.%s.storage.type=h2", node));
+                  commands.add("-C");
+                  commands.add(
+                      String.format(
+                          "canton.%s.storage.config.url=jdbc:h2:file:%s;MODE=PostgreSQL;"
+                              + "LOCK_TIMEOUT=10000;DB_CLOSE_DELAY=-1",
+                          node, store.resolve(database).toAbsolutePath()));
+                }));
     commands.add("--dar");
     commands.add(relativeDarPath.toString());
 
@@ -68,15 +108,61 @@ public abstract class SandboxRunner {
 
   public final void startSandbox() throws IOException {
     File workingDirectory = getWorkingDirectory(damlRoot);
+    RotatingLogFile logFile;
+    try {
+      logFile = new RotatingLogFile(acquireLogDirectory(sandboxPort).resolve("sandbox.log"));
+    } catch (IOException e) {
+      releaseLogDirectory(sandboxPort);
+      throw e;
+    }
+    auxiliaryPorts = new ArrayList<>();
+    for (int i = 0; i < AUXILIARY_PORT_OPTIONS.size(); i++) {
+      auxiliaryPorts.add(FreePorts.reserve());
+    }
     ProcessBuilder procBuilder =
         new ProcessBuilder(getDamlSandboxStarterCommand()).directory(workingDirectory);
 
-    ProcessBuilder.Redirect redirect =
-        ProcessBuilder.Redirect.appendTo(new File("integration-test-sandbox.log"));
     logger.debug("Executing: {}", String.join(" ", procBuilder.command()));
     logger.debug("Working directory: {}", workingDirectory);
-    sandbox = procBuilder.redirectError(redirect).redirectOutput(redirect).start();
-    logger.info("Starting sandbox...");
+    try {
+      sandbox = procBuilder.redirectErrorStream(true).start();
+    } catch (IOException e) {
+      logFile.close();
+      releaseAuxiliaryPorts();
+      releaseLogDirectory(sandboxPort);
+      throw e;
+    }
+    output = ProcessOutput.capture("sandbox-" + sandboxPort, sandbox, logFile);
+    logger.info("Starting sandbox, logging to {}...", logFile.getFile());
+  }
+
+  /**
+   * The directory for the logs of the running sandbox with the given ledger API port and its
+   * scripts, or the log root for a sandbox not started here. Directories are numbered rather than
+   * named after the random port, and a number is reused once its sandbox has stopped, so that the
+   * rotating log files bound the disk space taken across restarts and runs.
+   */
+  static synchronized Path logDirectory(int sandboxPort) {
+    Integer slot = logSlots.get(sandboxPort);
+    return slot != null ? LOG_ROOT.resolve("sandbox-" + slot) : LOG_ROOT;
+  }
+
+  private static synchronized Path acquireLogDirectory(int sandboxPort) {
+    int slot = 0;
+    while (logSlots.containsValue(slot)) {
+      slot++;
+    }
+    logSlots.put(sandboxPort, slot);
+    return logDirectory(sandboxPort);
+  }
+
+  private static synchronized void releaseLogDirectory(int sandboxPort) {
+    logSlots.remove(sandboxPort);
+  }
+
+  /** The output of the running sandbox, or null if it has not been started. */
+  public ProcessOutput getOutput() {
+    return output;
   }
 
   private File getWorkingDirectory(Path path) {
@@ -92,9 +178,18 @@ public abstract class SandboxRunner {
       logger.info("Stopping sandbox...");
       closeSandbox(sandbox);
       sandbox.waitFor();
+      output.close();
       logger.info("Stopped sandbox");
     }
     sandbox = null;
+    output = null;
+    releaseAuxiliaryPorts();
+    releaseLogDirectory(sandboxPort);
+  }
+
+  private void releaseAuxiliaryPorts() {
+    auxiliaryPorts.forEach(FreePorts::release);
+    auxiliaryPorts = Collections.emptyList();
   }
 
   protected abstract void closeSandbox(Process sandbox) throws IOException;
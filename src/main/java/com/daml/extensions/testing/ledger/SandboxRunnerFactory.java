@@ -18,13 +18,14 @@ public class SandboxRunnerFactory {
       int sandboxPort,
       boolean useWallclockTime,
       Optional<String> ledgerId,
-      Optional<LogLevel> logLevel) {
+      Optional<LogLevel> logLevel,
+      Optional<Path> ledgerStore) {
     if (OS.isWindows()) {
       return new WindowsSandboxRunner(
-          damlRoot, darPath, sandboxPort, useWallclockTime, ledgerId, logLevel);
+          damlRoot, darPath, sandboxPort, useWallclockTime, ledgerId, logLevel, ledgerStore);
     } else {
       return new UnixSandboxRunner(
-          damlRoot, darPath, sandboxPort, useWallclockTime, ledgerId, logLevel);
+          damlRoot, darPath, sandboxPort, useWallclockTime, ledgerId, logLevel, ledgerStore);
     }
   }
 }
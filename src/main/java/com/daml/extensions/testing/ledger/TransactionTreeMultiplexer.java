@@ -0,0 +1,180 @@
+/*
+ * Copyright 2020 Digital Asset (Switzerland) GmbH and/or its affiliates
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.daml.extensions.testing.ledger;
+
+import com.daml.ledger.api.v1.TransactionOuterClass;
+import com.daml.ledger.api.v1.TransactionServiceGrpc;
+import com.daml.ledger.api.v1.TransactionServiceOuterClass;
+import com.daml.ledger.javaapi.data.Filter;
+import com.daml.ledger.javaapi.data.FiltersByParty;
+import com.daml.ledger.javaapi.data.GetTransactionsRequest;
+import com.daml.ledger.javaapi.data.LedgerOffset;
+import com.daml.ledger.javaapi.data.NoFilter;
+import com.daml.ledger.javaapi.data.TreeEvent;
+import io.grpc.Context;
+import io.grpc.ManagedChannel;
+import io.grpc.Status;
+import io.grpc.stub.StreamObserver;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+/**
+ * Observes the transaction trees of several parties through a single stream. Each event is routed
+ * to the parties that witnessed it. Registering another party replays the already streamed part of
+ * the ledger for that party only, then re-subscribes from the last seen offset with a filter
+ * covering all parties. The replay runs outside the lock, live events of the party are buffered
+ * until it has finished so that they are routed in ledger order.
+ */
+class TransactionTreeMultiplexer {
+  private static final Logger logger = LoggerFactory.getLogger(TransactionTreeMultiplexer.class);
+
+  private final Object lock = new Object();
+  private final String ledgerId;
+  private final ManagedChannel channel;
+  private final Context parentContext;
+  private final LedgerOffset startOffset;
+  private final BiConsumer<String, TreeEvent> route;
+  private final Map<String, Filter> filters = new LinkedHashMap<>();
+  private final Map<String, List<TreeEvent>> catchingUp = new HashMap<>();
+
+  private Context.CancellableContext subscription;
+  private LedgerOffset lastOffset;
+
+  TransactionTreeMultiplexer(
+      String ledgerId,
+      ManagedChannel channel,
+      Context parentContext,
+      LedgerOffset startOffset,
+      BiConsumer<String, TreeEvent> route) {
+    this.ledgerId = ledgerId;
+    this.channel = channel;
+    this.parentContext = parentContext;
+    this.startOffset = startOffset;
+    this.route = route;
+  }
+
+  void addParty(String party) {
+    LedgerOffset catchUpEnd;
+    synchronized (lock) {
+      if (filters.containsKey(party)) {
+        return;
+      }
+      catchUpEnd = lastOffset;
+      if (catchUpEnd != null) {
+        catchingUp.put(party, new ArrayList<>());
+      }
+      filters.put(party, NoFilter.instance);
+      resubscribe();
+    }
+    if (catchUpEnd != null) {
+      try {
+        catchUp(party, catchUpEnd);
+      } finally {
+        synchronized (lock) {
+          catchingUp.remove(party).forEach(event -> route.accept(party, event));
+        }
+      }
+    }
+  }
+
+  void close() {
+    synchronized (lock) {
+      if (subscription != null) {
+        subscription.cancel(null);
+        subscription = null;
+      }
+    }
+  }
+
+  private void catchUp(String party, LedgerOffset endOffset) {
+    GetTransactionsRequest request =
+        new GetTransactionsRequest(
+            ledgerId,
+            startOffset,
+            endOffset,
+            new FiltersByParty(Collections.singletonMap(party, NoFilter.instance)),
+            true);
+    Iterator<TransactionServiceOuterClass.GetTransactionTreesResponse> responses =
+        TransactionServiceGrpc.newBlockingStub(channel).getTransactionTrees(request.toProto());
+    while (responses.hasNext()) {
+      for (TransactionOuterClass.TransactionTree tree : responses.next().getTransactionsList()) {
+        tree.getEventsByIdMap()
+            .values()
+            .forEach(protoEvent -> route.accept(party, TreeEvent.fromProtoTreeEvent(protoEvent)));
+      }
+    }
+  }
+
+  private void resubscribe() {
+    if (subscription != null) {
+      subscription.cancel(null);
+    }
+    Context.CancellableContext context = parentContext.withCancellation();
+    subscription = context;
+    GetTransactionsRequest request =
+        new GetTransactionsRequest(
+            ledgerId,
+            lastOffset != null ? lastOffset : startOffset,
+            new FiltersByParty(new LinkedHashMap<>(filters)),
+            true);
+    StreamObserver<TransactionServiceOuterClass.GetTransactionTreesResponse> observer =
+        new StreamObserver<>() {
+          public void onNext(TransactionServiceOuterClass.GetTransactionTreesResponse response) {
+            synchronized (lock) {
+              // a stream that has been replaced must not deliver events twice
+              if (subscription == context) {
+                response.getTransactionsList().forEach(tree -> dispatch(tree));
+              }
+            }
+          }
+
+          public void onError(Throwable t) {
+            if (t.toString().contains("Channel shutdown invoked")
+                || Status.fromThrowable(t).getCode() == Status.Code.CANCELLED) {
+              logger.trace("Multiplexed stream stopped");
+            } else {
+              logger.error("Error occurred in multiplexed stream handler", t);
+            }
+          }
+
+          public void onCompleted() {
+            logger.trace("Multiplexed stream processing completed");
+          }
+        };
+    context.run(
+        () ->
+            TransactionServiceGrpc.newStub(channel)
+                .getTransactionTrees(request.toProto(), observer));
+  }
+
+  private void dispatch(TransactionOuterClass.TransactionTree tree) {
+    tree.getEventsByIdMap()
+        .values()
+        .forEach(
+            protoEvent -> {
+              TreeEvent event = TreeEvent.fromProtoTreeEvent(protoEvent);
+              for (String witness : event.getWitnessParties()) {
+                List<TreeEvent> buffer = catchingUp.get(witness);
+                if (buffer != null) {
+                  buffer.add(event);
+                } else if (filters.containsKey(witness)) {
+                  route.accept(witness, event);
+                }
+              }
+            });
+    lastOffset = new LedgerOffset.Absolute(tree.getOffset());
+  }
+}
@@ -18,8 +18,10 @@ public class UnixSandboxRunner extends SandboxRunner {
       Integer sandboxPort,
       boolean useWallclockTime,
       Optional<String> ledgerId,
-      Optional<LogLevel> logLevel) {
-    super(damlRoot, relativeDarPath, sandboxPort, useWallclockTime, ledgerId, logLevel);
+      Optional<LogLevel> logLevel,
+      Optional<Path> ledgerStore) {
+    super(
+        damlRoot, relativeDarPath, sandboxPort, useWallclockTime, ledgerId, logLevel, ledgerStore);
   }
 
   @Override
@@ -20,8 +20,10 @@ public class WindowsSandboxRunner extends SandboxRunner {
       Integer sandboxPort,
       boolean useWallclockTime,
       Optional<String> ledgerId,
-      Optional<LogLevel> logLevel) {
-    super(damlRoot, relativeDarPath, sandboxPort, useWallclockTime, ledgerId, logLevel);
+      Optional<LogLevel> logLevel,
+      Optional<Path> ledgerStore) {
+    super(
+        damlRoot, relativeDarPath, sandboxPort, useWallclockTime, ledgerId, logLevel, ledgerStore);
   }
 
   @Override
@@ -9,7 +9,6 @@ package com.daml.extensions.testing.ledger.clock;
 import com.daml.ledger.api.v1.testing.TimeServiceGrpc;
 import com.daml.ledger.api.v1.testing.TimeServiceOuterClass;
 
-import com.google.common.util.concurrent.Monitor;
 import com.google.protobuf.Timestamp;
 import io.grpc.stub.StreamObserver;
 import org.slf4j.Logger;
@@ -17,7 +16,14 @@ import org.slf4j.LoggerFactory;
 
 import java.time.Duration;
 import java.time.Instant;
-import java.util.concurrent.atomic.AtomicReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.function.Supplier;
 
 public class SandboxTimeProvider implements TimeProvider {
@@ -60,33 +66,67 @@ public class SandboxTimeProvider implements TimeProvider {
     };
   }
 
-  private TimeServiceGrpc.TimeServiceStub stub;
-  private final String ledgerId;
-  private final Monitor monitor = new Monitor();
+  private static final Duration TIME_CHANGE_TIMEOUT = Duration.ofSeconds(10);
 
-  private final AtomicReference<Instant> actualTime = new AtomicReference<>(null);
+  private final TimeServiceGrpc.TimeServiceBlockingStub timeService;
+  private final String ledgerId;
+  private volatile Instant actualTime = null;
+  // guarded by this
+  private final TreeMap<Instant, List<CompletableFuture<Instant>>> waiters = new TreeMap<>();
+  private Throwable stopped = null;
+  // the last time requested, which the time stream may not have echoed yet
+  private Instant requestedTime = null;
 
   private SandboxTimeProvider(TimeServiceGrpc.TimeServiceStub stub, String ledgerId) {
-    this.stub = stub;
+    this.timeService = TimeServiceGrpc.newBlockingStub(stub.getChannel());
     this.ledgerId = ledgerId;
   }
 
-  private synchronized void setActualTime(Timestamp ts) {
-    monitor.enter();
-    try {
-      actualTime.set(Instant.ofEpochSecond(ts.getSeconds(), ts.getNanos()));
-    } finally {
-      monitor.leave();
+  private void setActualTime(Timestamp ts) {
+    Instant time = Instant.ofEpochSecond(ts.getSeconds(), ts.getNanos());
+    List<CompletableFuture<Instant>> reached = new ArrayList<>();
+    synchronized (this) {
+      actualTime = time;
+      NavigableMap<Instant, List<CompletableFuture<Instant>>> due = waiters.headMap(time, true);
+      due.values().forEach(reached::addAll);
+      due.clear();
     }
+    reached.forEach(waiter -> waiter.complete(time));
   }
 
   @Override
   public Instant getCurrentTime() {
-    return actualTime.get();
+    return actualTime;
   }
 
-  private synchronized void stop(Throwable t) {
-    stub = null;
+  /**
+   * Completes with the ledger time once it has reached the given time. It completes exceptionally
+   * if the time service stops first.
+   */
+  public CompletableFuture<Instant> whenTimeReaches(Instant time) {
+    CompletableFuture<Instant> waiter = new CompletableFuture<>();
+    synchronized (this) {
+      Instant current = actualTime;
+      if (current != null && current.compareTo(time) >= 0) {
+        waiter.complete(current);
+      } else if (stopped != null) {
+        waiter.completeExceptionally(stopped);
+      } else {
+        waiters.computeIfAbsent(time, t -> new ArrayList<>()).add(waiter);
+      }
+    }
+    return waiter;
+  }
+
+  private void stop(Throwable t) {
+    IllegalStateException failure = new IllegalStateException("Time service stopped.", t);
+    List<CompletableFuture<Instant>> pending = new ArrayList<>();
+    synchronized (this) {
+      stopped = failure;
+      waiters.values().forEach(pending::addAll);
+      waiters.clear();
+    }
+    pending.forEach(waiter -> waiter.completeExceptionally(failure));
     if (t != null) {
       logger.error("Time service stopped", t);
     } else {
@@ -96,9 +136,23 @@ public class SandboxTimeProvider implements TimeProvider {
 
   @Override
   public void setCurrentTime(Instant time) {
+    advanceTo(time);
+    waitForTimeChange(time);
+  }
+
+  /** Sets the time without waiting for the time stream to report it. */
+  @Override
+  public void advanceTo(Instant time) {
     logger.debug("Setting new time {}", time);
 
-    Instant at = actualTime.get();
+    Instant at;
+    synchronized (this) {
+      at = actualTime;
+      if (requestedTime != null && requestedTime.isAfter(at)) {
+        at = requestedTime;
+      }
+      requestedTime = time;
+    }
     TimeServiceOuterClass.SetTimeRequest req =
         TimeServiceOuterClass.SetTimeRequest.newBuilder()
             .setLedgerId(ledgerId)
@@ -113,23 +167,36 @@ public class SandboxTimeProvider implements TimeProvider {
                     .setSeconds(time.getEpochSecond())
                     .build())
             .build();
-    TimeServiceGrpc.newBlockingStub(stub.getChannel()).setTime(req);
-
-    waitForTimeChange(time);
+    try {
+      timeService.setTime(req);
+    } catch (RuntimeException e) {
+      synchronized (this) {
+        if (time.equals(requestedTime)) {
+          requestedTime = null;
+        }
+      }
+      throw e;
+    }
   }
 
   private void waitForTimeChange(Instant time) {
-    Monitor.Guard timeIsActualized =
-        monitor.newGuard(
-            () -> this.actualTime.get() != null && this.actualTime.get().compareTo(time) >= 0);
+    CompletableFuture<Instant> waiter = whenTimeReaches(time);
     try {
-      if (monitor.enterWhen(timeIsActualized, Duration.ofSeconds(10))) {
-        monitor.leave();
-      } else {
-        throw new IllegalStateException("Failed to set time.");
-      }
+      waiter.get(TIME_CHANGE_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS);
+    } catch (TimeoutException | ExecutionException e) {
+      removeWaiter(time, waiter);
+      throw new IllegalStateException("Failed to set time.", e);
     } catch (InterruptedException e) {
+      removeWaiter(time, waiter);
       Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while setting time.", e);
+    }
+  }
+
+  private synchronized void removeWaiter(Instant time, CompletableFuture<Instant> waiter) {
+    List<CompletableFuture<Instant>> pending = waiters.get(time);
+    if (pending != null && pending.remove(waiter) && pending.isEmpty()) {
+      waiters.remove(time);
     }
   }
 }
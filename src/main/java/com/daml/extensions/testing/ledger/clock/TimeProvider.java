@@ -12,4 +12,12 @@ public interface TimeProvider {
   Instant getCurrentTime();
 
   void setCurrentTime(Instant time);
+
+  /**
+   * Sets the time like {@link #setCurrentTime(Instant)}, but may return before {@link
+   * #getCurrentTime()} reflects the new time. Commands submitted afterwards see the new time.
+   */
+  default void advanceTo(Instant time) {
+    setCurrentTime(time);
+  }
 }
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2020 Digital Asset (Switzerland) GmbH and/or its affiliates
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.daml.extensions.testing.utils;
+
+import com.daml.daml_lf_dev.DamlLf;
+import com.google.protobuf.CodedInputStream;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Optional;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+
+/**
+ * Reads the packages of a DAR: the main package and the dependencies declared in its manifest.
+ * Packages already in the metadata cache are not decoded.
+ */
+class DarReader {
+  private static final Attributes.Name MAIN_DALF = new Attributes.Name("Main-Dalf");
+  private static final Attributes.Name DALFS = new Attributes.Name("Dalfs");
+
+  private final PackageMetadataCache cache;
+
+  DarReader(PackageMetadataCache cache) {
+    this.cache = cache;
+  }
+
+  List<PackageMetadata> read(Path darPath) throws IOException {
+    List<PackageMetadata> packages = new ArrayList<>();
+    try (JarFile dar = new JarFile(darPath.toFile())) {
+      for (String dalf : dalfs(dar)) {
+        JarEntry entry = dar.getJarEntry(dalf);
+        if (entry == null) {
+          throw new IOException("DAR " + darPath + " does not contain " + dalf);
+        }
+        DamlLf.Archive archive;
+        try (InputStream in = dar.getInputStream(entry)) {
+          archive = DamlLf.Archive.parseFrom(in);
+        }
+        String packageId = archive.getHash();
+        Optional<PackageMetadata> cached = cache.load(packageId);
+        if (cached.isPresent()) {
+          packages.add(cached.get());
+        } else {
+          CodedInputStream payload = archive.getPayload().newCodedInput();
+          payload.setRecursionLimit(1000); // default is 100 which is not enough for a package
+          PackageMetadata metadata =
+              PackageMetadata.extract(
+                  packageId, DamlLf.ArchivePayload.parseFrom(payload).getDamlLf1());
+          cache.store(metadata);
+          packages.add(metadata);
+        }
+      }
+    }
+    return packages;
+  }
+
+  /** The DALF entries declared in the manifest, or all DALF entries if there is no manifest. */
+  private static List<String> dalfs(JarFile dar) throws IOException {
+    List<String> dalfs = new ArrayList<>();
+    Manifest manifest = dar.getManifest();
+    if (manifest != null && manifest.getMainAttributes().containsKey(DALFS)) {
+      for (String dalf : manifest.getMainAttributes().getValue(DALFS).split(",")) {
+        if (!dalf.trim().isEmpty()) {
+          dalfs.add(dalf.trim());
+        }
+      }
+      String main = manifest.getMainAttributes().getValue(MAIN_DALF);
+      if (main != null && !dalfs.contains(main.trim())) {
+        dalfs.add(0, main.trim());
+      }
+      return dalfs;
+    }
+    Enumeration<JarEntry> entries = dar.entries();
+    while (entries.hasMoreElements()) {
+      JarEntry entry = entries.nextElement();
+      if (entry.getName().endsWith(".dalf")) {
+        dalfs.add(entry.getName());
+      }
+    }
+    return dalfs;
+  }
+}
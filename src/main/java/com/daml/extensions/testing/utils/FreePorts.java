@@ -0,0 +1,44 @@
+/*
+ * Copyright 2020 Digital Asset (Switzerland) GmbH and/or its affiliates
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.daml.extensions.testing.utils;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Hands out TCP ports which the operating system reports as free. A port is found by binding to
+ * port 0 and releasing the socket; a port already handed out in this JVM and not yet released is
+ * skipped, so that concurrently starting sandboxes never get the same port.
+ */
+public class FreePorts {
+  private static final int MAX_ATTEMPTS = 100;
+  private static final Set<Integer> reserved = ConcurrentHashMap.newKeySet();
+
+  public static int reserve() {
+    IOException lastFailure = null;
+    for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+      int port;
+      try (ServerSocket socket = new ServerSocket(0)) {
+        port = socket.getLocalPort();
+      } catch (IOException e) {
+        lastFailure = e;
+        continue;
+      }
+      if (reserved.add(port)) {
+        return port;
+      }
+    }
+    throw new IllegalStateException("Unable to find a free port.", lastFailure);
+  }
+
+  /** Marks a port handed out by {@link #reserve()} as no longer in use. */
+  public static void release(int port) {
+    reserved.remove(port);
+  }
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright 2020 Digital Asset (Switzerland) GmbH and/or its affiliates
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.daml.extensions.testing.utils;
+
+import static com.daml.extensions.testing.utils.Preconditions.require;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/** Keeps the last lines of a log in memory, dropping the oldest line when full. */
+public class LogRingBuffer {
+  private final String[] lines;
+  private long written = 0;
+
+  public LogRingBuffer(int capacity) {
+    require(capacity > 0, "Capacity of a log ring buffer must be positive.");
+    this.lines = new String[capacity];
+  }
+
+  public synchronized void add(String line) {
+    lines[(int) (written % lines.length)] = line;
+    written++;
+  }
+
+  /** Up to the last {@code count} lines, oldest first. */
+  public synchronized List<String> tail(int count) {
+    int size = (int) Math.min(Math.min(written, lines.length), Math.max(count, 0));
+    List<String> tail = new ArrayList<>(size);
+    for (long i = written - size; i < written; i++) {
+      tail.add(lines[(int) (i % lines.length)]);
+    }
+    return tail;
+  }
+
+  /** The number of lines added so far, including the dropped ones. */
+  public synchronized long written() {
+    return written;
+  }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright 2020 Digital Asset (Switzerland) GmbH and/or its affiliates
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.daml.extensions.testing.utils;
+
+import com.daml.daml_lf_dev.DamlLf1;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * The parts of a DAML-LF package the testing library needs: module names, and the fields and
+ * choices of its data types. Interned names and types are resolved, so the metadata can be used
+ * without the package it was extracted from.
+ */
+class PackageMetadata {
+  final String packageId;
+  final List<DamlLf1.DottedName> moduleNames;
+  final List<DataType> dataTypes;
+
+  PackageMetadata(
+      String packageId, List<DamlLf1.DottedName> moduleNames, List<DataType> dataTypes) {
+    this.packageId = packageId;
+    this.moduleNames = moduleNames;
+    this.dataTypes = dataTypes;
+  }
+
+  static class DataType {
+    final String moduleName;
+    final String entityName;
+    /** Record fields with resolved names and types, or null if the data type is not a record. */
+    final List<DamlLf1.FieldWithType> fields;
+    /** Choice names mapped to the name of their argument data type, if this is a template. */
+    final Optional<Map<String, String>> choices;
+
+    DataType(
+        String moduleName,
+        String entityName,
+        List<DamlLf1.FieldWithType> fields,
+        Optional<Map<String, String>> choices) {
+      this.moduleName = moduleName;
+      this.entityName = entityName;
+      this.fields = fields;
+      this.choices = choices;
+    }
+
+    boolean isTemplate() {
+      return fields != null && choices.isPresent();
+    }
+
+    boolean hasFields() {
+      return fields != null;
+    }
+  }
+
+  static PackageMetadata extract(String packageId, DamlLf1.Package lfPackage) {
+    InternedNames names = new InternedNames(lfPackage);
+    List<DamlLf1.DottedName> moduleNames = new ArrayList<>();
+    List<DataType> dataTypes = new ArrayList<>();
+    for (DamlLf1.Module mod : lfPackage.getModulesList()) {
+      DamlLf1.DottedName moduleName = names.of(mod);
+      moduleNames.add(moduleName);
+      String modN = PackageUtils.dottedNameToString(moduleName);
+      Map<DamlLf1.DottedName, DamlLf1.DefTemplate> templates = new HashMap<>();
+      for (DamlLf1.DefTemplate template : mod.getTemplatesList()) {
+        templates.put(names.of(template), template);
+      }
+      for (DamlLf1.DefDataType dataType : mod.getDataTypesList()) {
+        DamlLf1.DottedName dataTypeName = names.of(dataType);
+        List<DamlLf1.FieldWithType> fields = null;
+        Optional<Map<String, String>> choices = Optional.empty();
+        if (dataType.hasRecord()) {
+          fields = resolveFields(dataType.getRecord().getFieldsList(), lfPackage);
+          DamlLf1.DefTemplate template = templates.get(dataTypeName);
+          if (template != null) {
+            choices = Optional.of(extractChoices(template, names, lfPackage));
+          }
+        }
+        dataTypes.add(
+            new DataType(modN, PackageUtils.dottedNameToString(dataTypeName), fields, choices));
+      }
+    }
+    return new PackageMetadata(packageId, moduleNames, dataTypes);
+  }
+
+  private static List<DamlLf1.FieldWithType> resolveFields(
+      List<DamlLf1.FieldWithType> fields, DamlLf1.Package lfPackage) {
+    List<DamlLf1.FieldWithType> resolved = new ArrayList<>(fields.size());
+    for (DamlLf1.FieldWithType field : fields) {
+      DamlLf1.FieldWithType.Builder builder =
+          field.toBuilder().setType(resolveType(field.getType(), lfPackage));
+      if (field.getFieldCase() == DamlLf1.FieldWithType.FieldCase.FIELD_INTERNED_STR) {
+        builder.setFieldStr(lfPackage.getInternedStrings(field.getFieldInternedStr()));
+      }
+      resolved.add(builder.build());
+    }
+    return Collections.unmodifiableList(resolved);
+  }
+
+  private static DamlLf1.Type resolveType(DamlLf1.Type type, DamlLf1.Package lfPackage) {
+    return type.hasInterned() ? lfPackage.getInternedTypes(type.getInterned()) : type;
+  }
+
+  private static Map<String, String> extractChoices(
+      DamlLf1.DefTemplate template, InternedNames names, DamlLf1.Package lfPackage) {
+    Map<String, String> choices = new HashMap<>();
+    for (DamlLf1.TemplateChoice choice : template.getChoicesList()) {
+      DamlLf1.Type argumentType = resolveType(choice.getArgBinder().getType(), lfPackage);
+      String argumentTypeName =
+          argumentType.hasCon()
+              ? PackageUtils.dottedNameToString(names.of(argumentType.getCon().getTycon()))
+              : "";
+      choices.put(PackageUtils.getChoiceName(choice, lfPackage), argumentTypeName);
+    }
+    return choices;
+  }
+
+  /**
+   * Resolves the interned dotted names of a package. Each name is built at most once, in a table
+   * indexed by its interned id, however many modules, data types and choices refer to it.
+   */
+  private static class InternedNames {
+    private final DamlLf1.Package lfPackage;
+    private final DamlLf1.DottedName[] dottedNames;
+
+    InternedNames(DamlLf1.Package lfPackage) {
+      this.lfPackage = lfPackage;
+      this.dottedNames = new DamlLf1.DottedName[lfPackage.getInternedDottedNamesCount()];
+    }
+
+    // Packages of DamlLf version <= 1.6 do not intern names.
+    DamlLf1.DottedName of(DamlLf1.Module mod) {
+      return mod.hasNameDname() ? mod.getNameDname() : interned(mod.getNameInternedDname());
+    }
+
+    DamlLf1.DottedName of(DamlLf1.DefDataType dataType) {
+      return dataType.hasNameDname()
+          ? dataType.getNameDname()
+          : interned(dataType.getNameInternedDname());
+    }
+
+    DamlLf1.DottedName of(DamlLf1.DefTemplate template) {
+      return template.hasTyconDname()
+          ? template.getTyconDname()
+          : interned(template.getTyconInternedDname());
+    }
+
+    DamlLf1.DottedName of(DamlLf1.TypeConName tycon) {
+      return tycon.hasNameDname() ? tycon.getNameDname() : interned(tycon.getNameInternedDname());
+    }
+
+    private DamlLf1.DottedName interned(int id) {
+      DamlLf1.DottedName name = dottedNames[id];
+      if (name == null) {
+        DamlLf1.InternedDottedName internedName = lfPackage.getInternedDottedNames(id);
+        DamlLf1.DottedName.Builder builder = DamlLf1.DottedName.newBuilder();
+        for (int i = 0; i < internedName.getSegmentsInternedStrCount(); i++) {
+          builder.addSegments(lfPackage.getInternedStrings(internedName.getSegmentsInternedStr(i)));
+        }
+        name = builder.build();
+        dottedNames[id] = name;
+      }
+      return name;
+    }
+  }
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright 2020 Digital Asset (Switzerland) GmbH and/or its affiliates
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.daml.extensions.testing.utils;
+
+import com.daml.daml_lf_dev.DamlLf1;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Stores {@link PackageMetadata} on disk, one file per package. A package id is the hash of the
+ * package contents, so a cached entry never needs to be invalidated.
+ *
+ * <p>The directory defaults to {@code daml-package-metadata} in the temporary directory and can be
+ * changed with the {@value #DIRECTORY_PROPERTY} system property.
+ */
+class PackageMetadataCache {
+  static final String DIRECTORY_PROPERTY = "daml.package.cache.dir";
+  private static final Logger logger = LoggerFactory.getLogger(PackageMetadataCache.class);
+  private static final int FORMAT_VERSION = 1;
+  private static final String EXTENSION = ".meta";
+
+  private final Path directory;
+
+  PackageMetadataCache(Path directory) {
+    this.directory = directory;
+  }
+
+  static PackageMetadataCache fromSystemProperties() {
+    String configured = System.getProperty(DIRECTORY_PROPERTY);
+    return new PackageMetadataCache(
+        configured != null
+            ? Paths.get(configured)
+            : Paths.get(System.getProperty("java.io.tmpdir"), "daml-package-metadata"));
+  }
+
+  Optional<PackageMetadata> load(String packageId) {
+    Path file = fileOf(packageId);
+    try {
+      byte[] content = Files.readAllBytes(file);
+      return Optional.of(read(packageId, new DataInputStream(new ByteArrayInputStream(content))));
+    } catch (NoSuchFileException e) {
+      return Optional.empty();
+    } catch (IOException | RuntimeException e) {
+      logger.warn("Ignoring unreadable package metadata {}", file, e);
+      return Optional.empty();
+    }
+  }
+
+  void store(PackageMetadata metadata) {
+    Path file = fileOf(metadata.packageId);
+    try {
+      Files.createDirectories(directory);
+      Path temporary = Files.createTempFile(directory, metadata.packageId, ".tmp");
+      try (OutputStream out = Files.newOutputStream(temporary)) {
+        DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out));
+        write(metadata, data);
+        data.flush();
+      }
+      Files.move(
+          temporary, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    } catch (IOException e) {
+      logger.warn("Failed to cache package metadata in {}", file, e);
+    }
+  }
+
+  private Path fileOf(String packageId) {
+    return directory.resolve(packageId + EXTENSION);
+  }
+
+  private static void write(PackageMetadata metadata, DataOutputStream out) throws IOException {
+    out.writeInt(FORMAT_VERSION);
+    out.writeInt(metadata.moduleNames.size());
+    for (DamlLf1.DottedName moduleName : metadata.moduleNames) {
+      writeBytes(out, moduleName.toByteArray());
+    }
+    out.writeInt(metadata.dataTypes.size());
+    for (PackageMetadata.DataType dataType : metadata.dataTypes) {
+      out.writeUTF(dataType.moduleName);
+      out.writeUTF(dataType.entityName);
+      out.writeBoolean(dataType.hasFields());
+      if (dataType.hasFields()) {
+        out.writeInt(dataType.fields.size());
+        for (DamlLf1.FieldWithType field : dataType.fields) {
+          writeBytes(out, field.toByteArray());
+        }
+      }
+      out.writeBoolean(dataType.choices.isPresent());
+      if (dataType.choices.isPresent()) {
+        out.writeInt(dataType.choices.get().size());
+        for (Map.Entry<String, String> choice : dataType.choices.get().entrySet()) {
+          out.writeUTF(choice.getKey());
+          out.writeUTF(choice.getValue());
+        }
+      }
+    }
+  }
+
+  private static PackageMetadata read(String packageId, DataInputStream in) throws IOException {
+    int version = in.readInt();
+    if (version != FORMAT_VERSION) {
+      throw new IOException("Unsupported package metadata format " + version);
+    }
+    int moduleCount = in.readInt();
+    List<DamlLf1.DottedName> moduleNames = new ArrayList<>(moduleCount);
+    for (int i = 0; i < moduleCount; i++) {
+      moduleNames.add(DamlLf1.DottedName.parseFrom(readBytes(in)));
+    }
+    int dataTypeCount = in.readInt();
+    List<PackageMetadata.DataType> dataTypes = new ArrayList<>(dataTypeCount);
+    for (int i = 0; i < dataTypeCount; i++) {
+      String moduleName = in.readUTF();
+      String entityName = in.readUTF();
+      List<DamlLf1.FieldWithType> fields = null;
+      if (in.readBoolean()) {
+        int fieldCount = in.readInt();
+        fields = new ArrayList<>(fieldCount);
+        for (int f = 0; f < fieldCount; f++) {
+          fields.add(DamlLf1.FieldWithType.parseFrom(readBytes(in)));
+        }
+      }
+      Optional<Map<String, String>> choices = Optional.empty();
+      if (in.readBoolean()) {
+        int choiceCount = in.readInt();
+        Map<String, String> m = new HashMap<>();
+        for (int c = 0; c < choiceCount; c++) {
+          m.put(in.readUTF(), in.readUTF());
+        }
+        choices = Optional.of(m);
+      }
+      dataTypes.add(new PackageMetadata.DataType(moduleName, entityName, fields, choices));
+    }
+    return new PackageMetadata(packageId, moduleNames, dataTypes);
+  }
+
+  private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  private static byte[] readBytes(DataInputStream in) throws IOException {
+    byte[] bytes = new byte[in.readInt()];
+    in.readFully(bytes);
+    return bytes;
+  }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2020 Digital Asset (Switzerland) GmbH and/or its affiliates
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.daml.extensions.testing.utils;
+
+import com.daml.daml_lf_dev.DamlLf1;
+import com.daml.ledger.javaapi.data.Identifier;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/** An immutable snapshot of the loaded packages, replaced as a whole when packages are added. */
+final class PackageRegistry {
+  static final PackageRegistry EMPTY =
+      new PackageRegistry(
+          Collections.emptyMap(),
+          Collections.emptyMap(),
+          Collections.emptyMap(),
+          Collections.emptySet());
+
+  final Map<DamlLf1.DottedName, String> packageNames;
+  final Map<String, Identifier> identifiers;
+  final Map<String, PackageMetadata.DataType> dataTypes;
+  private final Set<String> packageIds;
+
+  private PackageRegistry(
+      Map<DamlLf1.DottedName, String> packageNames,
+      Map<String, Identifier> identifiers,
+      Map<String, PackageMetadata.DataType> dataTypes,
+      Set<String> packageIds) {
+    this.packageNames = packageNames;
+    this.identifiers = identifiers;
+    this.dataTypes = dataTypes;
+    this.packageIds = packageIds;
+  }
+
+  boolean contains(String packageId) {
+    return packageIds.contains(packageId);
+  }
+
+  /**
+   * Returns a registry with the given packages added, in order, skipping known packages. Names
+   * defined by several packages keep resolving to the package which was added first.
+   */
+  PackageRegistry with(Collection<PackageMetadata> packages) {
+    Map<DamlLf1.DottedName, String> newPackageNames = new HashMap<>(packageNames);
+    Map<String, Identifier> newIdentifiers = new HashMap<>(identifiers);
+    Map<String, PackageMetadata.DataType> newDataTypes = new HashMap<>(dataTypes);
+    Set<String> newPackageIds = new HashSet<>(packageIds);
+    for (PackageMetadata metadata : packages) {
+      if (!newPackageIds.add(metadata.packageId)) {
+        continue;
+      }
+      for (DamlLf1.DottedName moduleName : metadata.moduleNames) {
+        newPackageNames.putIfAbsent(moduleName, metadata.packageId);
+      }
+      for (PackageMetadata.DataType dataType : metadata.dataTypes) {
+        String moduleAndEntityName = dataType.moduleName + ":" + dataType.entityName;
+        if (!newIdentifiers.containsKey(moduleAndEntityName)) {
+          newIdentifiers.put(
+              moduleAndEntityName,
+              new Identifier(metadata.packageId, dataType.moduleName, dataType.entityName));
+          newDataTypes.put(moduleAndEntityName, dataType);
+        }
+      }
+    }
+    return new PackageRegistry(
+        Collections.unmodifiableMap(newPackageNames),
+        Collections.unmodifiableMap(newIdentifiers),
+        Collections.unmodifiableMap(newDataTypes),
+        Collections.unmodifiableSet(newPackageIds));
+  }
+}
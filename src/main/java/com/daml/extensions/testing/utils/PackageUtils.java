@@ -12,20 +12,37 @@ import com.daml.ledger.javaapi.data.GetPackageResponse;
 import com.daml.ledger.javaapi.data.Identifier;
 import com.daml.ledger.rxjava.DamlLedgerClient;
 import com.daml.ledger.rxjava.PackageClient;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.protobuf.CodedInputStream;
 import com.google.protobuf.InvalidProtocolBufferException;
+import io.reactivex.Scheduler;
+import io.reactivex.Single;
+import io.reactivex.schedulers.Schedulers;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.stream.Collectors;
+import java.util.concurrent.ForkJoinPool;
 
 public class PackageUtils {
-  private static final ConcurrentHashMap<DamlLf1.DottedName, String> packageNames =
-      new ConcurrentHashMap<>();
-  private static final ConcurrentHashMap<String, Identifier> identifiers =
-      new ConcurrentHashMap<>();
-  private static final ConcurrentHashMap<String, DataType> dataTypes = new ConcurrentHashMap<>();
+  private static final int FETCH_WINDOW = 8;
+  private static final int DECODED_PACKAGES_CACHE_SIZE = 16;
+  private static final int TEMPLATES_CACHE_SIZE = 1024;
+  // reads cached metadata and decodes packages off the gRPC threads
+  private static final Scheduler decoder = Schedulers.from(ForkJoinPool.commonPool());
+  private static volatile PackageRegistry registry = PackageRegistry.EMPTY;
+  private static final Set<String> loadedDars = ConcurrentHashMap.newKeySet();
+  private static final PackageMetadataCache metadataCache =
+      PackageMetadataCache.fromSystemProperties();
+  private static final Cache<String, DamlLf1.Package> decodedPackages =
+      CacheBuilder.newBuilder().maximumSize(DECODED_PACKAGES_CACHE_SIZE).build();
+  private static final Cache<String, TemplateType> templates =
+      CacheBuilder.newBuilder().maximumSize(TEMPLATES_CACHE_SIZE).build();
 
   public static class TemplateType {
     public final Identifier identifier;
@@ -42,102 +59,10 @@ public class PackageUtils {
     }
   }
 
-  private static class DataType {
-    private Optional<Map<String, DamlLf1.Type>> choices = Optional.empty();
-    private List<DamlLf1.FieldWithType> fieldList = null;
-
-    public DataType(DamlLf1.Module mod, DamlLf1.DefDataType dataType, DamlLf1.Package lfPackage) {
-      if (dataType.hasRecord()) {
-        fieldList = dataType.getRecord().getFieldsList();
-        choices = getChoices(mod, dataType, lfPackage);
-      }
-    }
-
-    public boolean isTemplate() {
-      return fieldList != null && choices.isPresent();
-    }
-
-    public boolean hasFields() {
-      return fieldList != null;
-    }
-
-    public List<DamlLf1.FieldWithType> getCreateFields() {
-      return fieldList;
-    }
-
-    public Optional<Map<String, DamlLf1.Type>> getTemplateChoices() {
-      return choices;
-    }
-  }
-
-  private static DamlLf1.DottedName getInternedName(int internedNameId, DamlLf1.Package lfPackage) {
-    DamlLf1.InternedDottedName internedDottedModuleName =
-        lfPackage.getInternedDottedNames(internedNameId);
-    List<String> actualModuleNameList =
-        internedDottedModuleName
-            .getSegmentsInternedStrList()
-            .stream()
-            .map(lfPackage::getInternedStrings)
-            .collect(Collectors.toList());
-    return DamlLf1.DottedName.newBuilder().addAllSegments(actualModuleNameList).build();
-  }
-
-  private static DamlLf1.DottedName getModuleName(DamlLf1.Module mod, DamlLf1.Package lfPackage) {
-    DamlLf1.DottedName modN;
-    if (mod.hasNameDname()) { // DamlLf version <= 1.6 or nameCase_ == 1
-      modN = mod.getNameDname();
-    } else {
-      modN = getInternedName(mod.getNameInternedDname(), lfPackage);
-    }
-    return modN;
-  }
-
-  private static DamlLf1.DottedName getDataTypeName(
-      DamlLf1.DefDataType dataType, DamlLf1.Package lfPackage) {
-    DamlLf1.DottedName dataN;
-    if (dataType.hasNameDname()) { // DamlLf version <= 1.6 or nameCase_ == 1
-      dataN = dataType.getNameDname();
-    } else {
-      dataN = getInternedName(dataType.getNameInternedDname(), lfPackage);
-    }
-    return dataN;
-  }
-
-  private static DamlLf1.DottedName getTypeConName(
-      DamlLf1.TypeConName tycon, DamlLf1.Package lfPackage) {
-    DamlLf1.DottedName tyconN;
-    if (tycon.hasNameDname()) { // DamlLf version <= 1.6 or nameCase_ == 2
-      tyconN = tycon.getNameDname();
-    } else {
-      tyconN = getInternedName(tycon.getNameInternedDname(), lfPackage);
-    }
-    return tyconN;
-  }
-
-  private static DamlLf1.DottedName getDefTemplateName(
-      DamlLf1.DefTemplate dt, DamlLf1.Package lfPackage) {
-    DamlLf1.DottedName dtN;
-    if (dt.hasTyconDname()) { // DamlLf version <= 1.6 or nameCase_ == 1
-      dtN = dt.getTyconDname();
-    } else {
-      dtN = getInternedName(dt.getTyconInternedDname(), lfPackage);
-    }
-    return dtN;
-  }
-
   private static String getInternedString(int internedNameId, DamlLf1.Package lfPackage) {
     return lfPackage.getInternedStrings(internedNameId);
   }
 
-  private static DamlLf1.Type.Con getTypeCon(DamlLf1.Type t, DamlLf1.Package lfPackage) {
-    if (t.hasCon()) {
-      return t.getCon();
-    } else {
-      DamlLf1.Type resolved = lfPackage.getInternedTypes(t.getInterned());
-      return resolved.getCon();
-    }
-  }
-
   public static DamlLf1.Type.Prim getTypePrim(DamlLf1.Type t, DamlLf1.Package lfPackage) {
     if (t.hasPrim()) {
       return t.getPrim();
@@ -147,7 +72,7 @@ public class PackageUtils {
     }
   }
 
-  private static String getChoiceName(
+  static String getChoiceName(
       DamlLf1.TemplateChoice choice, // no .getNameDname()  and .hasNameDname() methods
       DamlLf1.Package lfPackage) {
     String choN;
@@ -161,26 +86,20 @@ public class PackageUtils {
 
   public static String findPackage(DamlLedgerClient ledgerClient, DamlLf1.DottedName moduleName)
       throws InvalidProtocolBufferException {
-    String strName = packageNames.get(moduleName);
+    String strName = registry.packageNames.get(moduleName);
+    if (strName != null) {
+      return strName;
+    }
+    try {
+      initCache(ledgerClient);
+    } catch (InvalidProtocolBufferException e) {
+      throw e;
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    strName = registry.packageNames.get(moduleName);
     if (strName != null) {
       return strName;
-    } else {
-      PackageClient pkgClient = ledgerClient.getPackageClient();
-      Iterable<String> pkgs = pkgClient.listPackages().blockingIterable();
-      for (String pkgId : pkgs) {
-        GetPackageResponse pkgResp = pkgClient.getPackage(pkgId).blockingGet();
-        DamlLf.ArchivePayload archivePl =
-            DamlLf.ArchivePayload.parseFrom(pkgResp.getArchivePayload());
-        DamlLf1.Package dl1 = archivePl.getDamlLf1();
-        List<DamlLf1.Module> mods = dl1.getModulesList();
-        for (DamlLf1.Module mod : mods) {
-          DamlLf1.DottedName modN = getModuleName(mod, dl1);
-          if (modN.equals(moduleName)) {
-            packageNames.put(moduleName, pkgId);
-            return pkgId;
-          }
-        }
-      }
     }
     throw new IllegalArgumentException("No package found " + moduleName);
   }
@@ -188,11 +107,20 @@ public class PackageUtils {
   public static DamlLf1.Package findPackageObject(
       DamlLedgerClient ledgerClient, DamlLf1.DottedName moduleName)
       throws InvalidProtocolBufferException {
-    PackageClient pkgClient = ledgerClient.getPackageClient();
     String pkgId = findPackage(ledgerClient, moduleName);
-    GetPackageResponse pkgResp = pkgClient.getPackage(pkgId).blockingGet();
-    DamlLf.ArchivePayload archivePl = DamlLf.ArchivePayload.parseFrom(pkgResp.getArchivePayload());
-    return archivePl.getDamlLf1();
+    DamlLf1.Package lfPackage = decodedPackages.getIfPresent(pkgId);
+    if (lfPackage == null) {
+      GetPackageResponse pkgResp = ledgerClient.getPackageClient().getPackage(pkgId).blockingGet();
+      try {
+        lfPackage = decode(pkgResp);
+      } catch (InvalidProtocolBufferException e) {
+        throw e;
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+      decodedPackages.put(pkgId, lfPackage);
+    }
+    return lfPackage;
   }
 
   public static DamlLf1.Package findPackageObject(DamlLedgerClient ledgerClient, String moduleName)
@@ -203,6 +131,10 @@ public class PackageUtils {
 
   public static TemplateType findTemplate(DamlLedgerClient ledgerClient, String moduleAndEntityName)
           throws IOException {
+    TemplateType cached = templates.getIfPresent(moduleAndEntityName);
+    if (cached != null) {
+      return cached;
+    }
     String[] parts = moduleAndEntityName.split(":");
 
     if (parts.length != 2) {
@@ -211,31 +143,28 @@ public class PackageUtils {
     }
 
     String moduleName = parts[0];
-    DataType dt = findDataType(ledgerClient, moduleAndEntityName);
+    PackageMetadata.DataType dt = findDataType(ledgerClient, moduleAndEntityName);
     if (dt.isTemplate()) {
       Map<String, List<DamlLf1.FieldWithType>> m = new HashMap<>();
-      for (Map.Entry<String, DamlLf1.Type> choiceArgEntry :
-          dt.getTemplateChoices().get().entrySet()) {
-
-        DamlLf1.Package dl1 = findPackageObject(ledgerClient, moduleName);
-
+      for (Map.Entry<String, String> choiceArgEntry : dt.choices.get().entrySet()) {
         String choiceArgName = choiceArgEntry.getKey();
-        DamlLf1.Type.Con choiceArgTypeCon = getTypeCon(choiceArgEntry.getValue(), dl1);
-
-        String choiceDataTypeName =
-            dottedNameToString(getTypeConName(choiceArgTypeCon.getTycon(), dl1));
+        String choiceDataTypeName = choiceArgEntry.getValue();
         String choiceDataTypeFqn = toFqn(moduleName, choiceDataTypeName);
         if (choiceArgName.equals("Archive") || choiceDataTypeName.equals("Archive")) {
           choiceDataTypeFqn = "DAInternalTemplate:Archive";
         }
-        DataType choiceArgDataType = findDataType(ledgerClient, choiceDataTypeFqn);
+        PackageMetadata.DataType choiceArgDataType =
+            findDataType(ledgerClient, choiceDataTypeFqn);
         if (choiceArgDataType.hasFields()) {
-          m.put(choiceArgName, choiceArgDataType.fieldList);
+          m.put(choiceArgName, choiceArgDataType.fields);
         } else {
           throw new IllegalStateException("Choice " + choiceArgName + " has no fields?");
         }
       }
-      return new TemplateType(identifiers.get(moduleAndEntityName), dt.getCreateFields(), m);
+      TemplateType templateType =
+          new TemplateType(registry.identifiers.get(moduleAndEntityName), dt.fields, m);
+      templates.put(moduleAndEntityName, templateType);
+      return templateType;
     }
     throw new IllegalArgumentException("No template found with the name " + moduleAndEntityName);
   }
@@ -248,17 +177,17 @@ public class PackageUtils {
     return b.toString();
   }
 
-  private static DataType findDataType(DamlLedgerClient ledgerClient, String moduleAndEntityName)
-          throws IOException {
+  private static PackageMetadata.DataType findDataType(
+      DamlLedgerClient ledgerClient, String moduleAndEntityName) throws IOException {
     assert !moduleAndEntityName.isEmpty();
-    DataType dt = dataTypes.get(moduleAndEntityName);
+    PackageMetadata.DataType dt = registry.dataTypes.get(moduleAndEntityName);
     if (dt != null) {
       return dt;
     } else {
       // Init or reinit the cache...
       initCache(ledgerClient);
       // Try again and throw.
-      dt = dataTypes.get(moduleAndEntityName);
+      dt = registry.dataTypes.get(moduleAndEntityName);
       if (dt != null) {
         return dt;
       }
@@ -267,29 +196,92 @@ public class PackageUtils {
     }
   }
 
-  private static void initCache(DamlLedgerClient ledgerClient)
-          throws IOException {
+  /**
+   * Loads the metadata of the packages on the ledger which have not been loaded yet, from the
+   * metadata cache on disk if possible, and from the ledger otherwise. Up to {@value FETCH_WINDOW}
+   * packages are fetched concurrently and decoded on the common fork-join pool; the loaded
+   * packages are published together once all of them are decoded.
+   */
+  private static void initCache(DamlLedgerClient ledgerClient) throws IOException {
     PackageClient pkgClient = ledgerClient.getPackageClient();
-    Iterable<String> pkgs = pkgClient.listPackages().blockingIterable();
-    for (String pkgId : pkgs) {
-      GetPackageResponse pkgResp = pkgClient.getPackage(pkgId).blockingGet();
-      CodedInputStream codeInputStream = CodedInputStream.newInstance(pkgResp.getArchivePayload());
-      codeInputStream.setRecursionLimit(1000); // default is 100 which is not enough for a package
-      DamlLf.ArchivePayload archivePl =
-          DamlLf.ArchivePayload.parseFrom(codeInputStream);
-      DamlLf1.Package dl1 = archivePl.getDamlLf1();
-      List<DamlLf1.Module> mods = dl1.getModulesList();
-      for (DamlLf1.Module mod : mods) {
-        for (DamlLf1.DefDataType dataType : mod.getDataTypesList()) {
-          String modN = dottedNameToString(getModuleName(mod, dl1));
-          String dataN = dottedNameToString(getDataTypeName(dataType, dl1));
-          String moduleAndEntityName = toFqn(modN, dataN);
-          Identifier id = new Identifier(pkgId, modN, dataN);
-          identifiers.put(moduleAndEntityName, id);
-          dataTypes.put(moduleAndEntityName, new DataType(mod, dataType, dl1));
-        }
+    PackageRegistry known = registry;
+    List<PackageMetadata> loaded;
+    try {
+      loaded =
+          pkgClient
+              .listPackages()
+              .filter(pkgId -> !known.contains(pkgId))
+              .concatMapEager(
+                  pkgId -> loadPackage(pkgClient, pkgId).toFlowable(), FETCH_WINDOW, 1)
+              .toList()
+              .blockingGet();
+    } catch (RuntimeException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
       }
+      throw e;
     }
+    register(loaded);
+  }
+
+  private static Single<PackageMetadata> loadPackage(PackageClient pkgClient, String pkgId) {
+    return Single.fromCallable(() -> metadataCache.load(pkgId))
+        .subscribeOn(decoder)
+        .flatMap(
+            cached ->
+                cached.isPresent()
+                    ? Single.just(cached.get())
+                    : pkgClient
+                        .getPackage(pkgId)
+                        .observeOn(decoder)
+                        .map(
+                            pkgResp -> {
+                              PackageMetadata metadata =
+                                  PackageMetadata.extract(pkgId, decode(pkgResp));
+                              metadataCache.store(metadata);
+                              return metadata;
+                            }));
+  }
+
+  private static DamlLf1.Package decode(GetPackageResponse pkgResp) throws IOException {
+    CodedInputStream codeInputStream = CodedInputStream.newInstance(pkgResp.getArchivePayload());
+    codeInputStream.setRecursionLimit(1000); // default is 100 which is not enough for a package
+    DamlLf.ArchivePayload archivePl = DamlLf.ArchivePayload.parseFrom(codeInputStream);
+    return archivePl.getDamlLf1();
+  }
+
+  /**
+   * Loads the metadata of the packages in a DAR, so that its templates can be looked up without
+   * fetching packages from the ledger. Loading an unchanged DAR again has no effect.
+   */
+  public static void loadDar(Path darPath) throws IOException {
+    String key = darPath.toAbsolutePath() + "@" + Files.getLastModifiedTime(darPath);
+    if (!loadedDars.add(key)) {
+      return;
+    }
+    try {
+      register(new DarReader(metadataCache).read(darPath));
+    } catch (IOException | RuntimeException e) {
+      loadedDars.remove(key);
+      throw e;
+    }
+  }
+
+  /** Loads the metadata of the packages in a DAR in the background, see {@link #loadDar}. */
+  public static CompletableFuture<Void> loadDarAsync(Path darPath) {
+    return CompletableFuture.runAsync(
+        () -> {
+          try {
+            loadDar(darPath);
+          } catch (IOException e) {
+            throw new UncheckedIOException(e);
+          }
+        });
+  }
+
+  private static synchronized void register(List<PackageMetadata> packages) {
+    registry = registry.with(packages);
+    templates.invalidateAll();
   }
 
   private static String toFqn(String moduleName, String entityName) {
@@ -298,25 +290,4 @@ public class PackageUtils {
     assert !moduleName.isEmpty() && !entityName.isEmpty();
     return moduleName + ":" + entityName;
   }
-
-  private static Optional<Map<String, DamlLf1.Type>> getChoices(
-      DamlLf1.Module mod, DamlLf1.DefDataType dataTypeName, DamlLf1.Package lfPackage) {
-    Optional<DamlLf1.DefTemplate> template =
-        mod.getTemplatesList()
-            .stream()
-            .filter(
-                t ->
-                    getDefTemplateName(t, lfPackage)
-                        .equals(getDataTypeName(dataTypeName, lfPackage)))
-            .findFirst();
-    if (template.isPresent()) {
-      HashMap<String, DamlLf1.Type> m = new HashMap<>();
-      for (DamlLf1.TemplateChoice choice : template.get().getChoicesList()) {
-        m.put(getChoiceName(choice, lfPackage), choice.getArgBinder().getType());
-      }
-      return Optional.of(m);
-    } else {
-      return Optional.empty();
-    }
-  }
 }
@@ -0,0 +1,174 @@
+/*
+ * Copyright 2020 Digital Asset (Switzerland) GmbH and/or its affiliates
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.daml.extensions.testing.utils;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * Consumes the merged output of a child process on a dedicated daemon thread. Each line is written
+ * to a {@link RotatingLogFile} and kept in a {@link LogRingBuffer}, so that the end of the output
+ * can be shown when the process fails.
+ */
+public class ProcessOutput implements AutoCloseable {
+  private static final Logger logger = LoggerFactory.getLogger(ProcessOutput.class);
+  private static final int DEFAULT_TAIL_LINES = 500;
+  private static final Duration CLOSE_TIMEOUT = Duration.ofSeconds(5);
+
+  private final String name;
+  private final RotatingLogFile logFile;
+  private final LogRingBuffer tail = new LogRingBuffer(DEFAULT_TAIL_LINES);
+  private final Map<Pattern, CompletableFuture<String>> awaitedLines = new ConcurrentHashMap<>();
+  private final CompletableFuture<Void> finished = new CompletableFuture<>();
+  private final InputStream output;
+  private final Thread reader;
+
+  private ProcessOutput(String name, InputStream output, RotatingLogFile logFile) {
+    this.name = name;
+    this.output = output;
+    this.logFile = logFile;
+    this.reader = new Thread(() -> pump(output), name + "-output");
+    this.reader.setDaemon(true);
+  }
+
+  /**
+   * Starts consuming the output of a process whose error stream is redirected to its output
+   * stream.
+   */
+  public static ProcessOutput capture(String name, Process process, RotatingLogFile logFile) {
+    ProcessOutput output = new ProcessOutput(name, process.getInputStream(), logFile);
+    output.reader.start();
+    return output;
+  }
+
+  public RotatingLogFile getLogFile() {
+    return logFile;
+  }
+
+  /** Up to the last {@code count} lines of output, oldest first. */
+  public List<String> tail(int count) {
+    return tail.tail(count);
+  }
+
+  /** The last lines of output, for failure messages. */
+  public String describeTail(int count) {
+    List<String> lines = tail(count);
+    if (lines.isEmpty()) {
+      return String.format("%s produced no output.", name);
+    }
+    return String.format(
+        "Last %d lines of %s output (see %s):%n%s",
+        lines.size(), name, logFile.getFile(), String.join(System.lineSeparator(), lines));
+  }
+
+  /**
+   * Completes with the first kept or future line which contains a match of the pattern. It
+   * completes exceptionally if the output ends first.
+   */
+  public CompletableFuture<String> awaitLine(Pattern pattern) {
+    CompletableFuture<String> line =
+        awaitedLines.computeIfAbsent(pattern, p -> new CompletableFuture<>());
+    for (String kept : tail(DEFAULT_TAIL_LINES)) {
+      if (pattern.matcher(kept).find()) {
+        line.complete(kept);
+        awaitedLines.remove(pattern, line);
+        return line;
+      }
+    }
+    if (finished.isDone()) {
+      line.completeExceptionally(new IllegalStateException(name + " output has ended."));
+    }
+    return line;
+  }
+
+  /** Completes when the process closes its output. */
+  public CompletableFuture<Void> finished() {
+    return finished;
+  }
+
+  /**
+   * Waits for the remaining output of a terminated process to be consumed. A child of the process
+   * may keep its output open; after a timeout the output is closed and the rest of it discarded.
+   */
+  @Override
+  public void close() throws InterruptedException {
+    reader.join(CLOSE_TIMEOUT.toMillis());
+    if (reader.isAlive()) {
+      logger.warn(
+          "{} output still open {} s after exit, discarding the rest",
+          name,
+          CLOSE_TIMEOUT.getSeconds());
+      try {
+        output.close();
+      } catch (IOException e) {
+        logger.debug("Failed to close {} output", name, e);
+      }
+      reader.interrupt();
+    }
+    try {
+      logFile.close();
+    } catch (IOException e) {
+      logger.warn("Failed to close {}", logFile.getFile(), e);
+    }
+  }
+
+  private void pump(InputStream output) {
+    try (BufferedReader lines =
+        new BufferedReader(new InputStreamReader(output, StandardCharsets.UTF_8))) {
+      boolean logging = true;
+      String line;
+      while ((line = lines.readLine()) != null) {
+        tail.add(line);
+        if (logging) {
+          logging = writeToLogFile(line);
+        }
+        if (!awaitedLines.isEmpty()) {
+          notifyAwaiting(line);
+        }
+      }
+    } catch (IOException e) {
+      logger.debug("Stopped reading {} output", name, e);
+    } finally {
+      finished.complete(null);
+      IllegalStateException ended = new IllegalStateException(name + " output has ended.");
+      awaitedLines.values().forEach(line -> line.completeExceptionally(ended));
+    }
+  }
+
+  /** Writes a line to the log file and tells whether to keep writing to it. */
+  private boolean writeToLogFile(String line) {
+    try {
+      logFile.writeLine(line);
+      return true;
+    } catch (IOException e) {
+      logger.warn("Failed to write {} output to {}", name, logFile.getFile(), e);
+      return false;
+    }
+  }
+
+  private void notifyAwaiting(String line) {
+    awaitedLines.forEach(
+        (pattern, awaited) -> {
+          if (pattern.matcher(line).find()) {
+            awaited.complete(line);
+            awaitedLines.remove(pattern, awaited);
+          }
+        });
+  }
+}
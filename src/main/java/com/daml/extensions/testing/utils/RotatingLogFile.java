@@ -0,0 +1,98 @@
+/*
+ * Copyright 2020 Digital Asset (Switzerland) GmbH and/or its affiliates
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.daml.extensions.testing.utils;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * A log file which is moved aside when it grows too large, keeping a few older files as {@code
+ * <name>.1}, {@code <name>.2}, and so on. A file left by an earlier run is moved aside on open.
+ */
+public class RotatingLogFile implements Closeable {
+  private static final long DEFAULT_MAX_BYTES = 10L * 1024 * 1024;
+  private static final int DEFAULT_BACKUPS = 3;
+
+  private final Path file;
+  private final long maxBytes;
+  private final int backups;
+  private BufferedWriter writer;
+  private long bytes;
+
+  public RotatingLogFile(Path file) throws IOException {
+    this(file, DEFAULT_MAX_BYTES, DEFAULT_BACKUPS);
+  }
+
+  public RotatingLogFile(Path file, long maxBytes, int backups) throws IOException {
+    this.file = file;
+    this.maxBytes = maxBytes;
+    this.backups = backups;
+    Path parent = file.toAbsolutePath().getParent();
+    if (parent != null) {
+      Files.createDirectories(parent);
+    }
+    if (Files.exists(file)) {
+      rotate();
+    }
+    open();
+  }
+
+  public Path getFile() {
+    return file;
+  }
+
+  public synchronized void writeLine(String line) throws IOException {
+    if (writer == null) {
+      return;
+    }
+    if (bytes > 0 && bytes + line.length() + 1 > maxBytes) {
+      writer.close();
+      rotate();
+      open();
+    }
+    writer.write(line);
+    writer.newLine();
+    writer.flush();
+    bytes += line.length() + 1;
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    if (writer != null) {
+      writer.close();
+      writer = null;
+    }
+  }
+
+  private void open() throws IOException {
+    writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8);
+    bytes = 0;
+  }
+
+  private void rotate() throws IOException {
+    if (backups <= 0) {
+      Files.deleteIfExists(file);
+      return;
+    }
+    for (int i = backups - 1; i >= 1; i--) {
+      Path older = backup(i);
+      if (Files.exists(older)) {
+        Files.move(older, backup(i + 1), StandardCopyOption.REPLACE_EXISTING);
+      }
+    }
+    Files.move(file, backup(1), StandardCopyOption.REPLACE_EXISTING);
+  }
+
+  private Path backup(int index) {
+    return file.resolveSibling(file.getFileName() + "." + index);
+  }
+}
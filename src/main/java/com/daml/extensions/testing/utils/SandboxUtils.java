@@ -6,9 +6,13 @@
 
 package com.daml.extensions.testing.utils;
 
+import com.daml.ledger.api.v1.LedgerIdentityServiceGrpc;
+import com.daml.ledger.api.v1.LedgerIdentityServiceOuterClass.GetLedgerIdentityRequest;
 import com.daml.ledger.rxjava.DamlLedgerClient;
 import com.google.common.base.Stopwatch;
-import com.google.common.collect.Range;
+import io.grpc.ManagedChannel;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
 import org.slf4j.Logger;
 
 import java.io.IOException;
@@ -16,57 +20,140 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
 import java.util.stream.Stream;
 
 public class SandboxUtils {
   private static final Path DAML_YAML = Paths.get("daml.yaml");
-  private static final Range<Integer> SANDBOX_PORT_RANGE = Range.closed(6860, 6890);
-  private static final Range<Integer> SANDBOX_PORT_BAD_RANGE = Range.closed(6865, 6867);
-
-  private static final AtomicInteger SANDBOX_PORT_COUNTER =
-      new AtomicInteger(SANDBOX_PORT_RANGE.lowerEndpoint());
+  private static final Duration INITIAL_PROBE_BACKOFF = Duration.ofMillis(50);
+  private static final Duration MAX_PROBE_BACKOFF = Duration.ofSeconds(1);
+  private static final Duration PROBE_DEADLINE = Duration.ofSeconds(2);
 
+  /**
+   * A free port for a sandbox's ledger API. It is not handed out again until released with {@link
+   * FreePorts#release(int)}.
+   */
   public static int getSandboxPort() {
-    return SANDBOX_PORT_COUNTER.updateAndGet(
-        p -> {
-          while (SANDBOX_PORT_BAD_RANGE.contains(p)) {
-            ++p;
-          }
-          if (SANDBOX_PORT_RANGE.contains(p)) {
-            return p + 1;
-          } else {
-            return SANDBOX_PORT_RANGE.lowerEndpoint();
-          }
-        });
+    return FreePorts.reserve();
   }
 
+  /**
+   * Waits until the client connects to the sandbox, retrying with the same backoff as {@link
+   * #waitForSandbox(ManagedChannel, DamlLedgerClient, Duration, Logger)}.
+   *
+   * @deprecated use {@link #waitForSandbox(ManagedChannel, DamlLedgerClient, Duration, Logger)},
+   *     which probes the sandbox through an existing channel instead of connecting the client
+   *     repeatedly.
+   */
+  @Deprecated
   public static void waitForSandbox(DamlLedgerClient client, Duration waitTimeout, Logger logger)
       throws TimeoutException {
-    boolean connected = false;
+    try {
+      awaitReady(() -> tryConnect(client), waitTimeout, new CompletableFuture<>(), logger);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new TimeoutException("Interrupted while waiting for sandbox");
+    }
+    logger.info("Connected to sandbox.");
+  }
+
+  /**
+   * Waits until the sandbox answers a ledger identity request, then connects the client. While
+   * the sandbox is unavailable it is probed again after 50 ms, doubling the delay up to a second.
+   */
+  public static void waitForSandbox(
+      ManagedChannel channel, DamlLedgerClient client, Duration waitTimeout, Logger logger)
+      throws TimeoutException, InterruptedException {
+    waitForSandbox(channel, client, waitTimeout, new CompletableFuture<>(), logger);
+  }
+
+  /**
+   * Like {@link #waitForSandbox(ManagedChannel, DamlLedgerClient, Duration, Logger)}, but probes
+   * again as soon as {@code readyHint} completes, e.g. when the sandbox logs that it is ready. If
+   * the hint completes exceptionally, e.g. when the output of the sandbox ends, it fails with an
+   * {@link IllegalStateException} instead of waiting for the timeout.
+   */
+  public static void waitForSandbox(
+      ManagedChannel channel,
+      DamlLedgerClient client,
+      Duration waitTimeout,
+      CompletableFuture<?> readyHint,
+      Logger logger)
+      throws TimeoutException, InterruptedException {
+    LedgerIdentityServiceGrpc.LedgerIdentityServiceBlockingStub identityService =
+        LedgerIdentityServiceGrpc.newBlockingStub(channel);
+    awaitReady(() -> isReady(identityService), waitTimeout, readyHint, logger);
+    client.connect();
+    logger.info("Connected to sandbox.");
+  }
+
+  private static void awaitReady(
+      BooleanSupplier probe, Duration waitTimeout, CompletableFuture<?> readyHint, Logger logger)
+      throws TimeoutException, InterruptedException {
     Stopwatch time = Stopwatch.createStarted();
-    while (!connected && time.elapsed().compareTo(waitTimeout) <= 0) {
-      try {
-        client.connect();
-        connected = true;
-      } catch (Exception ignored) {
-        if (!ignored.getMessage().contains("UNAVAILABLE")) {
-          // Sandbox hasn't started yet
-          throw ignored;
-        }
-        try {
-          logger.info("Waiting for sandbox...");
-          TimeUnit.SECONDS.sleep(1);
-        } catch (InterruptedException e) {
-          Thread.currentThread().interrupt();
-        }
+    Duration backoff = INITIAL_PROBE_BACKOFF;
+    while (!probe.getAsBoolean()) {
+      if (readyHint.isCompletedExceptionally()) {
+        throw new IllegalStateException("Sandbox stopped before it was ready");
+      }
+      Duration remaining = waitTimeout.minus(time.elapsed());
+      if (remaining.isNegative() || remaining.isZero()) {
+        throw new TimeoutException("Can't connect to sandbox");
+      }
+      logger.debug("Waiting for sandbox...");
+      pause(Math.min(backoff.toMillis(), remaining.toMillis()), readyHint);
+      backoff = backoff.multipliedBy(2);
+      if (backoff.compareTo(MAX_PROBE_BACKOFF) > 0) {
+        backoff = MAX_PROBE_BACKOFF;
       }
     }
+  }
 
-    if (connected) logger.info("Connected to sandbox.");
-    else throw new TimeoutException("Can't connect to sandbox");
+  private static void pause(long millis, CompletableFuture<?> readyHint)
+      throws InterruptedException {
+    if (readyHint.isDone()) {
+      TimeUnit.MILLISECONDS.sleep(millis);
+      return;
+    }
+    try {
+      readyHint.get(millis, TimeUnit.MILLISECONDS);
+    } catch (ExecutionException | TimeoutException ignored) {
+      // probe anyway
+    }
+  }
+
+  private static boolean isReady(
+      LedgerIdentityServiceGrpc.LedgerIdentityServiceBlockingStub identityService) {
+    try {
+      identityService
+          .withDeadlineAfter(PROBE_DEADLINE.toMillis(), TimeUnit.MILLISECONDS)
+          .getLedgerIdentity(GetLedgerIdentityRequest.getDefaultInstance());
+      return true;
+    } catch (StatusRuntimeException e) {
+      Status.Code code = e.getStatus().getCode();
+      if (code == Status.Code.UNAVAILABLE || code == Status.Code.DEADLINE_EXCEEDED) {
+        // Sandbox hasn't started yet
+        return false;
+      }
+      throw e;
+    }
+  }
+
+  private static boolean tryConnect(DamlLedgerClient client) {
+    try {
+      client.connect();
+      return true;
+    } catch (RuntimeException e) {
+      if (Status.fromThrowable(e).getCode() == Status.Code.UNAVAILABLE) {
+        // Sandbox hasn't started yet
+        return false;
+      }
+      throw e;
+    }
   }
 
   public static boolean isDamlRoot(Path path) {
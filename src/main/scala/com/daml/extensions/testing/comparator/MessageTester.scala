@@ -14,6 +14,13 @@ trait MessageTester[T] {
   def test(t: T): ComparisonResult
   def prettyPrintExpected: String
   def prettyPrintActual(t: T): String
+
+  /**
+    * Key of the messages this tester can match, see
+    * [[com.daml.extensions.testing.store.MessageIndexer]]. Testers without a key are
+    * tested against every message.
+    */
+  def indexKey: Option[Any] = None
 }
 
 object MessageTester {
@@ -42,14 +49,16 @@ object MessageTester {
       override def append(left: ComparisonResult,
                           right: => ComparisonResult): ComparisonResult =
         (left, right) match {
-          case (e: Error, _)      => e
-          case (_, e: Error)      => e
-          case (Irrelevant, r)    => r
-          case (l, Irrelevant)    => l
-          case (_: Same, r: Diff) => r
-          case (l: Diff, _: Same) => l
-          case (Diff(l), Diff(r)) => Diff(l ++ r)
-          case (Same(l), Same(r)) => Same(l ++ r)
+          case (e: Error, _)            => e
+          case (_, e: Error)            => e
+          case (Irrelevant, r)          => r
+          case (l, Irrelevant)          => l
+          case (_: Same, r: Diff)       => r
+          case (l: Diff, _: Same)       => l
+          case (Diff(l), Diff(r))       => Diff(l ++ r)
+          case (l @ Same(_), Same(Nil)) => l
+          case (Same(Nil), r @ Same(_)) => r
+          case (Same(l), Same(r))       => Same(l ++ r)
         }
     }
 }
@@ -0,0 +1,345 @@
+/*
+ * Copyright 2020 Digital Asset (Switzerland) GmbH and/or its affiliates
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.daml.extensions.testing.comparator.ledger
+
+import java.math.BigDecimal
+import java.time.{Instant, LocalDate}
+import java.util.function.Function
+import java.util.regex.Pattern
+
+import com.daml.ledger.javaapi.data.{
+  Bool,
+  ContractId,
+  DamlList,
+  DamlOptional,
+  DamlRecord,
+  Date,
+  Decimal,
+  Int64,
+  Numeric,
+  Party,
+  Text,
+  Timestamp,
+  Value,
+  Variant,
+  Unit => DamlUnit
+}
+import com.daml.extensions.testing.Patterns._
+import com.daml.extensions.testing.ast.{Ast, toAst}
+import com.daml.extensions.testing.comparator.MessageTester._
+
+import scala.util.Try
+
+/**
+  * An expected [[Ast]] compiled once into a matcher. Matching gives the same results as
+  * [[compareAst]] with the same expected value, but placeholders are parsed, regular expressions
+  * compiled and paths built when the matcher is compiled instead of for every actual value.
+  *
+  * Actual DAML values can be matched directly with `testValue`, which walks the value without
+  * converting it to an [[Ast]] and compares primitives by their typed value. Strings for diffs
+  * are only built on a mismatch.
+  */
+sealed trait AstMatcher {
+  def test(actual: Ast): ComparisonResult
+
+  /** Same as `test(toAst(actual))`. */
+  def testValue(actual: Value): ComparisonResult
+}
+
+object AstMatcher {
+  private val NothingCaptured: ComparisonResult = Same(Nil)
+  private val Identity: Function[Value, Value] = Function.identity()
+
+  def compile(expected: Ast, path: String = "ROOT"): AstMatcher =
+    expected match {
+      case Ast.Value(IgnoreRegex()) => Ignore
+      case Ast.Seq(elements)        => new SeqMatcher(elements, path)
+      case Ast.Map(fields)          => new MapMatcher(fields, path)
+      case Ast.Value(value)         => new ValueMatcher(value, path)
+      case Ast.Null                 => new NullMatcher(path)
+    }
+
+  def compileValue(expected: String, path: String): ValueMatcher =
+    new ValueMatcher(expected, path)
+
+  private def compareCtor(expectedCtor: String,
+                          expectedParams: Ast,
+                          expectedParamsMatcher: AstMatcher,
+                          actualCtor: String,
+                          actualParams: Ast,
+                          path: String): ComparisonResult =
+    if (expectedCtor != actualCtor)
+      ctorMismatch(expectedCtor, expectedParams, actualCtor, actualParams, path)
+    else expectedParamsMatcher.test(actualParams)
+
+  private def compareCtorValue(expectedCtor: String,
+                               expectedParams: Ast,
+                               expectedParamsMatcher: AstMatcher,
+                               actualCtor: String,
+                               actualParams: Value,
+                               path: String): ComparisonResult =
+    if (expectedCtor != actualCtor)
+      ctorMismatch(expectedCtor,
+                   expectedParams,
+                   actualCtor,
+                   toAst(actualParams),
+                   path)
+    else expectedParamsMatcher.testValue(actualParams)
+
+  private def ctorMismatch(expectedCtor: String,
+                           expectedParams: Ast,
+                           actualCtor: String,
+                           actualParams: Ast,
+                           path: String) =
+    Diff(
+      s"$path: Actual constructor / singleton map $actualCtor => $actualParams doesn't match expected constructor / singleton map $expectedCtor => $expectedParams")
+
+  private def unsupported(path: String, expected: Ast, actual: Ast) =
+    Error(s"$path: Unexpected or unsupported case: [$expected], [$actual]")
+
+  private def missing(path: String, expected: Any) =
+    Diff(s"$path: Value [$expected] expected, but it is missing")
+
+  /** Values represented by [[Ast.Null]]. */
+  private def isNull(value: Value): Boolean =
+    value == null || value.isInstanceOf[DamlUnit]
+
+  /** Values represented by an [[Ast.Value]]. */
+  private def isLeaf(value: Value): Boolean = value match {
+    case _: Text | _: Party | _: ContractId | _: Int64 | _: Numeric |
+        _: Decimal | _: Bool | _: Timestamp | _: Date =>
+      true
+    case _ => false
+  }
+
+  private def leafString(value: Value): String =
+    toAst(value).asInstanceOf[Ast.Value].value
+
+  private object Ignore extends AstMatcher {
+    override def test(actual: Ast): ComparisonResult = NothingCaptured
+    override def testValue(actual: Value): ComparisonResult = NothingCaptured
+  }
+
+  private final class NullMatcher(path: String) extends AstMatcher {
+    override def test(actual: Ast): ComparisonResult = actual match {
+      case Ast.Null       => NothingCaptured
+      case Ast.Value(act) => Diff(s"$path: Value [$act] not expected")
+      case _              => Diff(s"$path: Value [$actual] not expected")
+    }
+
+    override def testValue(actual: Value): ComparisonResult =
+      if (isNull(actual)) NothingCaptured
+      else test(toAst(actual))
+  }
+
+  private final class SeqMatcher(expected: collection.Seq[Ast], path: String)
+      extends AstMatcher {
+    private val expectedAst = Ast.Seq(expected)
+    private val elements: Array[AstMatcher] =
+      expected.zipWithIndex.map {
+        case (element, ix) => compile(element, s"$path[$ix]")
+      }.toArray
+
+    override def test(actual: Ast): ComparisonResult = actual match {
+      case Ast.Seq(act) if act.size == elements.length =>
+        var result: ComparisonResult = Irrelevant
+        var ix = 0
+        val it = act.iterator
+        while (it.hasNext) {
+          result =
+            comparisonResultMonoid.append(result, elements(ix).test(it.next()))
+          ix += 1
+        }
+        result
+      case Ast.Seq(act) => sizeMismatch(act.size)
+      case Ast.Null     => missing(path, expectedAst)
+      case _            => unsupported(path, expectedAst, actual)
+    }
+
+    override def testValue(actual: Value): ComparisonResult = actual match {
+      case record: DamlRecord =>
+        val fields = record.getFields
+        if (fields.size != elements.length) sizeMismatch(fields.size)
+        else {
+          var result: ComparisonResult = Irrelevant
+          var ix = 0
+          while (ix < elements.length) {
+            result = comparisonResultMonoid
+              .append(result, elements(ix).testValue(fields.get(ix).getValue))
+            ix += 1
+          }
+          result
+        }
+      case list: DamlList =>
+        val values = list.toList(Identity)
+        if (values.size != elements.length) sizeMismatch(values.size)
+        else {
+          var result: ComparisonResult = Irrelevant
+          var ix = 0
+          while (ix < elements.length) {
+            result = comparisonResultMonoid
+              .append(result, elements(ix).testValue(values.get(ix)))
+            ix += 1
+          }
+          result
+        }
+      case _ if isNull(actual) => missing(path, expectedAst)
+      case _                   => test(toAst(actual))
+    }
+
+    private def sizeMismatch(actualSize: Int) =
+      Diff(
+        s"$path: Expected list of size ${elements.length}, but got list of size $actualSize")
+  }
+
+  private final class MapMatcher(expected: collection.Map[String, Ast],
+                                 path: String)
+      extends AstMatcher {
+    private val expectedAst = Ast.Map(expected)
+    private val fields: Map[String, AstMatcher] =
+      expected.map { case (key, value) => key -> compile(value, s"$path.$key") }.toMap
+    private val ctor: Option[(String, Ast, AstMatcher)] =
+      if (expected.size == 1) {
+        val (key, value) = expected.head
+        Some((key, value, fields(key)))
+      } else None
+
+    override def test(actual: Ast): ComparisonResult = (ctor, actual) match {
+      case (Some((ec, ep, epMatcher)), Ast.Value(ac)) =>
+        compareCtor(ec, ep, epMatcher, ac, Ast.Null, path)
+      case (Some((ec, ep, epMatcher)), Ast.Constructor(ac, ap)) =>
+        compareCtor(ec, ep, epMatcher, ac, ap, path)
+      case (_, Ast.Map(actMap)) =>
+        (fields.keySet ++ actMap.keySet).toList.sorted.foldLeft(
+          Irrelevant: ComparisonResult) { (result, key) =>
+          val compared = (fields.get(key), actMap.get(key)) match {
+            case (Some(field), Some(actV)) => field.test(actV)
+            case (None, Some(actV)) =>
+              new NullMatcher(s"$path.$key").test(actV)
+            case (Some(field), None) => field.test(Ast.Null)
+            case (None, None)        => Error("Internal bug")
+          }
+          comparisonResultMonoid.append(result, compared)
+        }
+      case (_, Ast.Null) => missing(path, expectedAst)
+      case _             => unsupported(path, expectedAst, actual)
+    }
+
+    override def testValue(actual: Value): ComparisonResult = actual match {
+      case variant: Variant =>
+        testCtor(variant.getConstructor, variant.getValue)
+      case optional: DamlOptional =>
+        testCtor(SomeCtor, optional.getValue.orElse(null))
+      case _ =>
+        ctor match {
+          case Some((ec, ep, epMatcher)) if isLeaf(actual) =>
+            compareCtor(ec, ep, epMatcher, leafString(actual), Ast.Null, path)
+          case _ if isNull(actual) => missing(path, expectedAst)
+          case _                   => test(toAst(actual))
+        }
+    }
+
+    private def testCtor(actualCtor: String, actualParams: Value) =
+      ctor match {
+        case Some((ec, ep, epMatcher)) =>
+          compareCtorValue(ec, ep, epMatcher, actualCtor, actualParams, path)
+        case None =>
+          test(Ast.Map(Map(actualCtor -> toAst(actualParams))))
+      }
+  }
+
+  final class ValueMatcher private[AstMatcher] (expected: String, path: String)
+      extends AstMatcher {
+    private val expectedAst = Ast.Value(expected)
+    private val nullParams = new NullMatcher(s"$path.$expected")
+    private val literal = expected match {
+      case RegexMatchRegex(_) | IgnoreRegex() | CaptureVariableRegex(_) => false
+      case _                                                            => true
+    }
+    private val compare: String => ComparisonResult = expected match {
+      case RegexMatchRegex(pattern) =>
+        val compiled = Pattern.compile(unescape(pattern))
+        actual =>
+          if (compiled.matcher(actual).matches()) NothingCaptured
+          else
+            Diff(
+              s"$path: Actual value [$actual] doesn't match against the expected pattern [$pattern]")
+      case IgnoreRegex() => _ => NothingCaptured
+      case CaptureVariableRegex(name) =>
+        actual => Same(name -> new ContractId(actual))
+      case _ =>
+        actual =>
+          if (expected == actual) NothingCaptured
+          else literalMismatch(actual)
+    }
+
+    // the expected literal parsed as a typed value, if it is the canonical form of that value
+    private val expectedLong = parsed(_.toLong)(_.toString)
+    private val expectedDecimal = parsed(new BigDecimal(_))(_.toString)
+    private val expectedInstant = parsed(Instant.parse)(_.toString)
+    private val expectedDate = parsed(LocalDate.parse)(_.toString)
+
+    private def parsed[A](parse: String => A)(format: A => String): Option[A] =
+      if (literal) Try(parse(expected)).toOption.filter(format(_) == expected)
+      else None
+
+    /** Same as [[compareValues]] with the expected value and path of this matcher. */
+    def testString(actual: String): ComparisonResult = compare(actual)
+
+    override def test(actual: Ast): ComparisonResult = actual match {
+      case Ast.Constructor(ac, ap) =>
+        compareCtor(expected, Ast.Null, nullParams, ac, ap, path)
+      case Ast.Value(act) => testString(act)
+      case Ast.Null       => missing(path, expected)
+      case _              => unsupported(path, expectedAst, actual)
+    }
+
+    override def testValue(actual: Value): ComparisonResult = actual match {
+      case variant: Variant =>
+        compareCtorValue(expected,
+                         Ast.Null,
+                         nullParams,
+                         variant.getConstructor,
+                         variant.getValue,
+                         path)
+      case optional: DamlOptional =>
+        compareCtorValue(expected,
+                         Ast.Null,
+                         nullParams,
+                         SomeCtor,
+                         optional.getValue.orElse(null),
+                         path)
+      case _ if isNull(actual)            => missing(path, expected)
+      case _ if literal && isLeaf(actual) => testLiteral(actual)
+      case _ if isLeaf(actual)            => testString(leafString(actual))
+      case _                              => test(toAst(actual))
+    }
+
+    private def testLiteral(actual: Value): ComparisonResult = {
+      val same = actual match {
+        case text: Text             => expected == text.getValue
+        case party: Party           => expected == party.getValue
+        case contractId: ContractId => expected == contractId.getValue
+        case bool: Bool =>
+          expected == java.lang.Boolean.toString(bool.getValue)
+        case int64: Int64 =>
+          expectedLong match {
+            case Some(long) => long == int64.getValue
+            case None       => false
+          }
+        case numeric: Numeric     => expectedDecimal.contains(numeric.getValue)
+        case decimal: Decimal     => expectedDecimal.contains(decimal.getValue)
+        case timestamp: Timestamp => expectedInstant.contains(timestamp.getValue)
+        case date: Date           => expectedDate.contains(date.getValue)
+      }
+      if (same) NothingCaptured else literalMismatch(leafString(actual))
+    }
+
+    private def literalMismatch(actual: String) =
+      Diff(s"$path: Expected [$expected] but got [$actual]")
+  }
+}
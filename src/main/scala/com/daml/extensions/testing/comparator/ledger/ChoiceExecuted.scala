@@ -23,11 +23,20 @@ object ChoiceExecuted extends Logging {
       expectedTemplate: Identifier,
       expectedContractId: String,
       expectedChoiceName: String,
-      expectedChoiceArgumentOpt: Option[Value]): MessageTester[TreeEvent] =
+      expectedChoiceArgumentOpt: Option[Value]): MessageTester[TreeEvent] = {
+    val contractIdMatcher =
+      AstMatcher.compileValue(expectedContractId, "contractId")
+    val choiceNameMatcher =
+      AstMatcher.compileValue(expectedChoiceName, "choicename")
+    val choiceArgumentMatcher = expectedChoiceArgumentOpt.map(
+      expectedChoiceArgument => AstMatcher.compile(toAst(expectedChoiceArgument)))
     new MessageTester[TreeEvent] {
       override def prettyPrintExpected: String = ""
       override def prettyPrintActual(event: TreeEvent): String = ""
 
+      override def indexKey: Option[Any] =
+        Some(TreeEventKey.Exercised(expectedTemplate))
+
       override def test(event: TreeEvent): MessageTester.ComparisonResult = {
         event match {
           case exercised: ExercisedEvent
@@ -36,13 +45,12 @@ object ChoiceExecuted extends Logging {
             val choiceName = exercised.getChoice
             val choiceArgument = exercised.getChoiceArgument
             val compared =
-              compareValues(expectedContractId, contractId, "contractId") |+|
-                compareValues(expectedChoiceName, choiceName, "choicename")
+              contractIdMatcher.testString(contractId) |+|
+                choiceNameMatcher.testString(choiceName)
 
-            expectedChoiceArgumentOpt match {
-              case Some(expectedChoiceArgument) =>
-                compared |+| compareAst(toAst(expectedChoiceArgument),
-                                        toAst(choiceArgument))
+            choiceArgumentMatcher match {
+              case Some(matcher) =>
+                compared |+| matcher.testValue(choiceArgument)
               case None =>
                 compared
             }
@@ -50,4 +58,5 @@ object ChoiceExecuted extends Logging {
         }
       }
     }
+  }
 }
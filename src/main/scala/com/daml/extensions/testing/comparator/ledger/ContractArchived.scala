@@ -28,6 +28,9 @@ object ContractArchived extends Logging {
           case _ => "irrelevant"
         }
 
+      override def indexKey: Option[Any] =
+        TreeEventKey.archived(expectedContractId.getValue)
+
       override def test(event: TreeEvent): MessageTester.ComparisonResult =
         event match {
           case e: ExercisedEvent if e.isConsuming =>
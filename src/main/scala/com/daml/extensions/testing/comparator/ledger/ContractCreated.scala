@@ -22,13 +22,20 @@ object ContractCreated {
       expectedTemplate: Identifier,
       expectedContractId: String,
       captureOrexpectedArgumentsOpt: Either[String, Option[DamlRecord]])
-    : MessageTester[TreeEvent] =
+    : MessageTester[TreeEvent] = {
+    val contractIdMatcher =
+      AstMatcher.compileValue(expectedContractId, "contractId")
+    val argumentsMatcher = captureOrexpectedArgumentsOpt.map(
+      _.map(expectedArguments => AstMatcher.compile(toAst(expectedArguments))))
     new MessageTester[TreeEvent] {
       override def prettyPrintExpected: String =
         s"${expectedTemplate} - ${expectedContractId}"
 
       override def prettyPrintActual(event: TreeEvent): String = event.toString
 
+      override def indexKey: Option[Any] =
+        Some(TreeEventKey.Created(expectedTemplate))
+
       override def test(event: TreeEvent): MessageTester.ComparisonResult = {
         event match {
           case event1: CreatedEvent
@@ -36,12 +43,10 @@ object ContractCreated {
             val contractId = event1.getContractId
             val createArguments = event1.getArguments
 
-            val valueDiff =
-              compareValues(expectedContractId, contractId, "contractId")
-            captureOrexpectedArgumentsOpt match {
-              case Right(Some(expectedArguments)) =>
-                valueDiff |+| compareAst(toAst(expectedArguments),
-                                         toAst(createArguments))
+            val valueDiff = contractIdMatcher.testString(contractId)
+            argumentsMatcher match {
+              case Right(Some(matcher)) =>
+                valueDiff |+| matcher.testValue(createArguments)
               case Right(None) => valueDiff
               case Left(capture) =>
                 valueDiff |+| Same(capture -> createArguments)
@@ -51,6 +56,7 @@ object ContractCreated {
         }
       }
     }
+  }
 
   def expectContract(expectedTemplate: Identifier,
                      expectedContractId: String): MessageTester[TreeEvent] =
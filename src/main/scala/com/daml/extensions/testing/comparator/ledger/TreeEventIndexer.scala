@@ -0,0 +1,47 @@
+/*
+ * Copyright 2020 Digital Asset (Switzerland) GmbH and/or its affiliates
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.daml.extensions.testing.comparator.ledger
+
+import com.daml.extensions.testing.Patterns.{
+  CaptureVariableRegex,
+  IgnoreRegex,
+  RegexMatchRegex
+}
+import com.daml.extensions.testing.store.MessageIndexer
+import com.daml.ledger.javaapi.data.{
+  CreatedEvent,
+  ExercisedEvent,
+  Identifier,
+  TreeEvent
+}
+
+sealed trait TreeEventKey extends Product with Serializable
+
+object TreeEventKey {
+  final case class Created(templateId: Identifier) extends TreeEventKey
+  final case class Exercised(templateId: Identifier) extends TreeEventKey
+  final case class Archived(contractId: String) extends TreeEventKey
+
+  /** Index key for an expected contract id, unless it is a placeholder. */
+  def archived(expectedContractId: String): Option[TreeEventKey] =
+    expectedContractId match {
+      case RegexMatchRegex(_) | IgnoreRegex() | CaptureVariableRegex(_) => None
+      case contractId                                                   => Some(Archived(contractId))
+    }
+}
+
+class TreeEventIndexer extends MessageIndexer[TreeEvent] {
+  import TreeEventKey._
+
+  override def keysOf(event: TreeEvent): Iterable[Any] = event match {
+    case created: CreatedEvent => List(Created(created.getTemplateId))
+    case exercised: ExercisedEvent if exercised.isConsuming =>
+      List(Exercised(exercised.getTemplateId), Archived(exercised.getContractId))
+    case exercised: ExercisedEvent => List(Exercised(exercised.getTemplateId))
+    case _                         => Nil
+  }
+}
@@ -0,0 +1,16 @@
+/*
+ * Copyright 2020 Digital Asset (Switzerland) GmbH and/or its affiliates
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.daml.extensions.testing.comparator.ledger
+
+import com.daml.extensions.testing.store.MessageSizer
+import com.daml.ledger.javaapi.data.TreeEvent
+
+/** Estimates the size of an event by the size of its serialized form. */
+class TreeEventSizer extends MessageSizer[TreeEvent] {
+  override def sizeOf(event: TreeEvent): Long =
+    event.toProtoTreeEvent.getSerializedSize.toLong
+}
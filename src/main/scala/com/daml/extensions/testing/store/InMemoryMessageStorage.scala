@@ -6,45 +6,163 @@
 
 package com.daml.extensions.testing.store
 
+import java.io.IOException
+import java.nio.file.{Files, Path, StandardOpenOption}
 import java.time.Duration
-import java.util.concurrent.atomic.AtomicReference
-import java.util.concurrent.{CountDownLatch, TimeUnit, TimeoutException}
+import java.util.concurrent.atomic.{AtomicBoolean, AtomicReference}
+import java.util.concurrent.{
+  ConcurrentLinkedQueue,
+  CountDownLatch,
+  Executor,
+  Executors,
+  RejectedExecutionException,
+  TimeUnit,
+  TimeoutException
+}
 
 import com.daml.extensions.testing.comparator.MessageTester
 import com.daml.extensions.testing.comparator.MessageTester.{Diff, Error, Same}
+import com.google.common.util.concurrent.ThreadFactoryBuilder
 import grizzled.slf4j.Logging
 import javax.annotation.concurrent.GuardedBy
 
 import scala.collection.mutable
 import scala.collection.mutable.ListBuffer
+import scala.jdk.CollectionConverters._
 import scala.concurrent.duration.FiniteDuration
 
-class InMemoryMessageStorage[T](val channel: String, val valueStore: ValueStore)
+class InMemoryMessageStorage[T](val channel: String,
+                                val valueStore: ValueStore,
+                                indexer: MessageIndexer[T],
+                                sizer: MessageSizer[T],
+                                retention: RetentionPolicy,
+                                matcher: Executor)
     extends Logging {
+
+  /** Matches delivered messages on the delivering thread. */
+  def this(channel: String,
+           valueStore: ValueStore,
+           indexer: MessageIndexer[T],
+           sizer: MessageSizer[T],
+           retention: RetentionPolicy) =
+    this(channel,
+         valueStore,
+         indexer,
+         sizer,
+         retention,
+         InMemoryMessageStorage.CallingThread)
+
+  def this(channel: String, valueStore: ValueStore) =
+    this(channel,
+         valueStore,
+         MessageIndexer.none[T],
+         MessageSizer.byString[T],
+         RetentionPolicy.Unbounded)
+
+  def this(channel: String,
+           valueStore: ValueStore,
+           indexer: MessageIndexer[T]) =
+    this(channel,
+         valueStore,
+         indexer,
+         MessageSizer.byString[T],
+         RetentionPolicy.Unbounded)
+
+  private val inbox = new ConcurrentLinkedQueue[T]()
+  private val drainScheduled = new AtomicBoolean(false)
+  @volatile private var closed = false
+
+  @GuardedBy("this")
+  private val observedMessages: mutable.LinkedHashMap[Long, Observed[T]] =
+    mutable.LinkedHashMap()
   @GuardedBy("this")
-  private val observedMessages: ListBuffer[T] = ListBuffer()
+  private var observedBytes: Long = 0
   @GuardedBy("this")
-  private var claimedUpToIx: Int = 0
+  private var evictedCount: Long = 0
+  // evicted messages are written to the spill file outside of the storage lock, in order
+  @GuardedBy("this")
+  private val pendingSpill = ListBuffer[(Long, T)]()
+  private val spillLock = new Object
+  @GuardedBy("spillLock")
+  @volatile private var spillFile: Option[Path] = None
+  @GuardedBy("this")
+  private val observedByKey: mutable.Map[Any, mutable.LinkedHashSet[Long]] =
+    mutable.HashMap()
+  @GuardedBy("this")
+  private var nextSeq: Long = 0
+  @GuardedBy("this")
+  private var claimedUpToSeq: Long = 0
   @GuardedBy("this")
   private val listeners
     : mutable.Map[MessageTester[T], (CountDownLatch, AtomicReference[T])] =
     mutable.HashMap()
+  @GuardedBy("this")
+  private val listenersByKey
+    : mutable.Map[Any, mutable.LinkedHashSet[MessageTester[T]]] =
+    mutable.HashMap()
+  @GuardedBy("this")
+  private val unkeyedListeners: mutable.LinkedHashSet[MessageTester[T]] =
+    mutable.LinkedHashSet()
+
+  /**
+    * Queues a message without taking the storage lock, so that the threads delivering messages
+    * never wait for observers or for each other. Queued messages are matched by the matcher
+    * executor of the storage, at most one task at a time, and before any observation.
+    */
+  def onMessage(msg: T): Unit = {
+    inbox.add(msg)
+    if (!closed && drainScheduled.compareAndSet(false, true)) {
+      try {
+        matcher.execute(() => {
+          drainScheduled.set(false)
+          synchronized { drainInbox() }
+          flushSpill()
+        })
+      } catch {
+        case _: RejectedExecutionException =>
+          trace("storage closed, message is matched on the next observation")
+      }
+    }
+  }
+
+  /** Stops matching in the background. Queued messages are still matched by observations. */
+  def close(): Unit = closed = true
 
-  def onMessage(msg: T): Unit = synchronized {
-    listeners
-      .find { case (predicate, _) => predicate.test(msg).success }
+  @GuardedBy("this")
+  private def drainInbox(): Unit = {
+    var msg = inbox.poll()
+    while (msg != null) {
+      ingest(msg)
+      msg = inbox.poll()
+    }
+  }
+
+  @GuardedBy("this")
+  private def ingest(msg: T): Unit = {
+    val keys = indexer.keysOf(msg)
+    val waiting = keys.iterator.flatMap(listenersByKey.getOrElse(_, Nil)) ++
+      unkeyedListeners.iterator
+    waiting
+      .find(_.test(msg).success)
       .fold[Unit] {
         trace(
           "adding to observed messages, since no one claimed to have expected it")
-        observedMessages += msg
-      } {
-        case (tester, (latch, ref)) =>
-          trace(
-            "one tester claimed to be waiting for the message; catching the message, and counting down the latch")
-          listeners -= tester
-          claimedUpToIx = observedMessages.size
-          ref.set(msg)
-          latch.countDown()
+        val seq = nextSeq
+        nextSeq += 1
+        val size = if (retention.maxBytes.isDefined) sizer.sizeOf(msg) else 0L
+        observedMessages.put(seq, Observed(msg, size, System.nanoTime()))
+        observedBytes += size
+        keys.foreach { key =>
+          observedByKey.getOrElseUpdate(key, mutable.LinkedHashSet()) += seq
+        }
+        evictExpired()
+      } { tester =>
+        trace(
+          "one tester claimed to be waiting for the message; catching the message, and counting down the latch")
+        val (latch, ref) = removeListener(tester).get
+        claimedUpToSeq = nextSeq
+        ref.set(msg)
+        latch.countDown()
       }
   }
 
@@ -57,21 +175,26 @@ class InMemoryMessageStorage[T](val channel: String, val valueStore: ValueStore)
     val ref = new AtomicReference[T]() // to catch the message
     try {
       synchronized {
+        drainInbox()
+        evictExpired()
         // check if we have seen it first
-        val existingMsg = observedMessages.find(tester.test(_).success)
+        val existingMsg = candidates(tester).find {
+          case (_, msg) => tester.test(msg).success
+        }
         existingMsg.fold[Unit] {
           trace("didn't see the message yet, adding our listener")
-          listeners.put(tester, (latch, ref))
-        } { msg =>
-          trace(
-            "seen the message, counting down the latch, removing the message")
-          val ix = observedMessages.indexOf(msg)
-          observedMessages.remove(ix)
-          claimedUpToIx = (claimedUpToIx max ix) min observedMessages.size
-          ref.set(msg)
-          latch.countDown()
+          addListener(tester, (latch, ref))
+        } {
+          case (seq, msg) =>
+            trace(
+              "seen the message, counting down the latch, removing the message")
+            removeMessage(seq, msg)
+            claimedUpToSeq = claimedUpToSeq max seq
+            ref.set(msg)
+            latch.countDown()
         }
       }
+      flushSpill()
 
       trace("waiting for the message to come")
       if (latch.await(time.toSeconds, TimeUnit.SECONDS)) {
@@ -92,29 +215,34 @@ class InMemoryMessageStorage[T](val channel: String, val valueStore: ValueStore)
           s"Timed out while waiting for the correct message to be observed.\n$description")
       }
     } finally {
-      synchronized { listeners.remove(tester) }
+      synchronized { removeListener(tester) }
     }
   }
 
-  def assertDidntHappen(tester: MessageTester[T]): Unit = synchronized {
-    observedMessages
-      .drop(claimedUpToIx)
-      .find(tester.test(_).success)
-      .fold {
-        // do nothing, all good
-      } { actual =>
-        throw new IllegalStateException(
-          s"""Expected message to not have happened:
-             |${tester.prettyPrintExpected}
-             |But it actually happened:
-             |${tester.prettyPrintActual(actual)}""".stripMargin
-        )
-      }
-  }
+  def assertDidntHappen(tester: MessageTester[T]): Unit =
+    try synchronized {
+      drainInbox()
+      evictExpired()
+      candidates(tester)
+        .find {
+          case (seq, msg) => seq >= claimedUpToSeq && tester.test(msg).success
+        }
+        .fold {
+          // do nothing, all good
+        } { case (_, actual) =>
+          throw new IllegalStateException(
+            s"""Expected message to not have happened:
+               |${tester.prettyPrintExpected}
+               |But it actually happened:
+               |${tester.prettyPrintActual(actual)}""".stripMargin
+          )
+        }
+    } finally flushSpill()
 
   def logExpectedAndActualMessages(predicate: MessageTester[T]): String =
-    synchronized {
-      val diffs = observedMessages.map(actual =>
+    try synchronized {
+      drainInbox()
+      val diffs = observedMessages.values.map(_.message).map(actual =>
         (() => predicate.prettyPrintActual(actual), predicate.test(actual)))
       val observedDiffs = diffs.flatMap {
         case (actual, Diff(diff)) =>
@@ -139,11 +267,137 @@ class InMemoryMessageStorage[T](val channel: String, val valueStore: ValueStore)
           s"However, $total other events observed (along with $irrelevant irrelevant events) via $channel channel:\n\n$prettyDiffs"
       }
 
+      val evicted =
+        if (evictedCount == 0) ""
+        else
+          s"\n\n$evictedCount older events were evicted from the $channel channel" +
+            spillFile.fold("")(file => s" and written to $file")
+
       s"""Expected:
        |
        |${predicate.prettyPrintExpected}
        |
-       |$actualOutcome
+       |$actualOutcome$evicted
      """.stripMargin
+    } finally flushSpill()
+
+  /** Observed messages the tester can match, in the order they were observed. */
+  @GuardedBy("this")
+  private def candidates(tester: MessageTester[T]): Iterator[(Long, T)] =
+    keyOf(tester) match {
+      case Some(key) =>
+        observedByKey
+          .getOrElse(key, Nil)
+          .iterator
+          .map(seq => seq -> observedMessages(seq).message)
+      case None =>
+        observedMessages.iterator.map { case (seq, o) => seq -> o.message }
+    }
+
+  @GuardedBy("this")
+  private def removeMessage(seq: Long, msg: T): Unit = {
+    observedMessages.remove(seq).foreach(observedBytes -= _.size)
+    indexer.keysOf(msg).foreach { key =>
+      observedByKey.get(key).foreach { seqs =>
+        seqs -= seq
+        if (seqs.isEmpty) observedByKey.remove(key)
+      }
+    }
+  }
+
+  /** Evicts the oldest messages until the storage is within its retention limits. */
+  @GuardedBy("this")
+  private def evictExpired(): Unit =
+    if (retention.isBounded) {
+      val evicted = ListBuffer[(Long, T)]()
+      val now = System.nanoTime()
+      def exceeded(oldest: Observed[T]): Boolean =
+        retention.maxMessages.exists(observedMessages.size > _) ||
+          retention.maxBytes.exists(observedBytes > _) ||
+          retention.maxAge.exists(now - oldest.observedAt > _.toNanos)
+      while (observedMessages.nonEmpty && exceeded(observedMessages.head._2)) {
+        val (seq, oldest) = observedMessages.head
+        removeMessage(seq, oldest.message)
+        evicted += seq -> oldest.message
+      }
+      if (evicted.nonEmpty) {
+        evictedCount += evicted.size
+        trace(s"evicted ${evicted.size} messages from $channel channel")
+        if (retention.spillDirectory.isDefined) pendingSpill ++= evicted
+      }
+    }
+
+  /** Writes the messages evicted so far to the spill file. Must not hold the storage lock. */
+  private def flushSpill(): Unit =
+    retention.spillDirectory.foreach { directory =>
+      spillLock.synchronized {
+        val evicted = this.synchronized {
+          val taken = pendingSpill.toList
+          pendingSpill.clear()
+          taken
+        }
+        if (evicted.nonEmpty) spill(directory, evicted)
+      }
+    }
+
+  @GuardedBy("spillLock")
+  private def spill(directory: Path, evicted: List[(Long, T)]): Unit =
+    try {
+      val file = spillFile.getOrElse {
+        Files.createDirectories(directory)
+        val created = Files.createTempFile(directory, s"$channel-", ".log")
+        spillFile = Some(created)
+        created
+      }
+      val lines = evicted.map { case (seq, msg) => s"$seq\t$msg" }
+      Files.write(file, lines.asJava, StandardOpenOption.APPEND)
+    } catch {
+      case e: IOException =>
+        warn(s"Failed to spill evicted messages to $directory", e)
+    }
+
+  @GuardedBy("this")
+  private def addListener(tester: MessageTester[T],
+                          listener: (CountDownLatch, AtomicReference[T])): Unit = {
+    listeners.put(tester, listener)
+    keyOf(tester) match {
+      case Some(key) =>
+        listenersByKey.getOrElseUpdate(key, mutable.LinkedHashSet()) += tester
+      case None => unkeyedListeners += tester
     }
+  }
+
+  @GuardedBy("this")
+  private def removeListener(
+      tester: MessageTester[T]): Option[(CountDownLatch, AtomicReference[T])] = {
+    keyOf(tester) match {
+      case Some(key) =>
+        listenersByKey.get(key).foreach { testers =>
+          testers -= tester
+          if (testers.isEmpty) listenersByKey.remove(key)
+        }
+      case None => unkeyedListeners -= tester
+    }
+    listeners.remove(tester)
+  }
+
+  private def keyOf(tester: MessageTester[T]): Option[Any] =
+    if (indexer eq MessageIndexer.NoIndex) None else tester.indexKey
+}
+
+object InMemoryMessageStorage {
+
+  /**
+    * Matches the messages of any number of storages in the background. Its daemon threads are
+    * started on demand and end when idle, so storages hold no thread of their own.
+    */
+  val SharedMatcher: Executor = Executors.newCachedThreadPool(
+    new ThreadFactoryBuilder()
+      .setDaemon(true)
+      .setNameFormat("storage-matcher-%d")
+      .build())
+
+  private val CallingThread: Executor = (task: Runnable) => task.run()
 }
+
+private final case class Observed[T](message: T, size: Long, observedAt: Long)
@@ -0,0 +1,22 @@
+/*
+ * Copyright 2020 Digital Asset (Switzerland) GmbH and/or its affiliates
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.daml.extensions.testing.store
+
+/**
+  * Derives the keys under which a message is indexed in an [[InMemoryMessageStorage]].
+  * A tester with an [[com.daml.extensions.testing.comparator.MessageTester.indexKey]] is
+  * only tested against the messages indexed under that key.
+  */
+trait MessageIndexer[-T] {
+  def keysOf(message: T): Iterable[Any]
+}
+
+object MessageIndexer {
+  val NoIndex: MessageIndexer[Any] = _ => Nil
+
+  def none[T]: MessageIndexer[T] = NoIndex
+}
@@ -0,0 +1,18 @@
+/*
+ * Copyright 2020 Digital Asset (Switzerland) GmbH and/or its affiliates
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.daml.extensions.testing.store
+
+/** Estimates the heap footprint of a message, used by the byte limit of a [[RetentionPolicy]]. */
+trait MessageSizer[-T] {
+  def sizeOf(message: T): Long
+}
+
+object MessageSizer {
+  val ByString: MessageSizer[Any] = message => 2L * message.toString.length
+
+  def byString[T]: MessageSizer[T] = ByString
+}
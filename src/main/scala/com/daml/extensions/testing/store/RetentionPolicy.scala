@@ -0,0 +1,41 @@
+/*
+ * Copyright 2020 Digital Asset (Switzerland) GmbH and/or its affiliates
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.daml.extensions.testing.store
+
+import java.nio.file.Path
+import java.time.Duration
+
+/**
+  * Limits how many unclaimed messages an [[InMemoryMessageStorage]] keeps. When a limit is
+  * exceeded the oldest messages are evicted; evicted messages can no longer be observed, but are
+  * appended to a file in the spill directory, if one is set, for diagnostics.
+  */
+final case class RetentionPolicy(maxMessages: Option[Int],
+                                 maxBytes: Option[Long],
+                                 maxAge: Option[Duration],
+                                 spillDirectory: Option[Path]) {
+  def withMaxMessages(maxMessages: Int): RetentionPolicy =
+    copy(maxMessages = Some(maxMessages))
+
+  def withMaxBytes(maxBytes: Long): RetentionPolicy =
+    copy(maxBytes = Some(maxBytes))
+
+  def withMaxAge(maxAge: Duration): RetentionPolicy =
+    copy(maxAge = Some(maxAge))
+
+  def withSpillDirectory(spillDirectory: Path): RetentionPolicy =
+    copy(spillDirectory = Some(spillDirectory))
+
+  def isBounded: Boolean =
+    maxMessages.isDefined || maxBytes.isDefined || maxAge.isDefined
+}
+
+object RetentionPolicy {
+  val Unbounded: RetentionPolicy = RetentionPolicy(None, None, None, None)
+
+  def unbounded(): RetentionPolicy = Unbounded
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright 2020 Digital Asset (Switzerland) GmbH and/or its affiliates
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.daml.extensions.testing;
+
+import com.daml.extensions.testing.junit5.Sandbox;
+import com.daml.extensions.testing.junit5.SandboxTestExtension;
+import com.daml.extensions.testing.junit5.TestSandbox;
+import com.daml.extensions.testing.utils.ContractWithId;
+import com.daml.ledger.javaapi.data.ContractId;
+import com.daml.ledger.javaapi.data.Identifier;
+import com.google.protobuf.InvalidProtocolBufferException;
+import org.junit.jupiter.api.RepeatedTest;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import static com.daml.extensions.testing.TestCommons.*;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+// every repetition restarts the sandbox, only the first one runs the setup script
+@ExtendWith(SandboxTestExtension.class)
+public class SnapshotSetupIT {
+  @TestSandbox
+  public static final Sandbox sandbox =
+      Sandbox.builder()
+          .damlRoot(PINGPONG_PATH)
+          .dar(DAR_PATH)
+          .moduleAndScript("Test", "testSetup")
+          .snapshotSetup()
+          .build();
+
+  @RepeatedTest(3)
+  public void restoredLedgerHasContractsOfSetupScript() throws InvalidProtocolBufferException {
+    ContractWithId<ContractId> contract =
+        sandbox
+            .getLedgerAdapter()
+            .getMatchedContract(sandbox.getPartyId(BOB), pingTemplateId(), ContractId::new);
+    assertNotNull(contract);
+  }
+
+  private Identifier pingTemplateId() throws InvalidProtocolBufferException {
+    return sandbox.templateIdentifier(PING_PONG_MODULE, PING_PONG_MODULE_NAME, "MyPing");
+  }
+}
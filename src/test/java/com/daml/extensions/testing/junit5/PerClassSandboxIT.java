@@ -0,0 +1,43 @@
+/*
+ * Copyright 2020 Digital Asset (Switzerland) GmbH and/or its affiliates
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.daml.extensions.testing.junit5;
+
+import com.daml.ledger.javaapi.data.Party;
+import org.junit.jupiter.api.RepeatedTest;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.daml.extensions.testing.TestCommons.ALICE;
+import static com.daml.extensions.testing.TestCommons.DAR_PATH;
+import static com.daml.extensions.testing.TestCommons.PINGPONG_PATH;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@ExtendWith(SandboxTestExtension.class)
+public class PerClassSandboxIT {
+  private static final Set<Integer> ports = ConcurrentHashMap.newKeySet();
+  private static final Set<Party> parties = ConcurrentHashMap.newKeySet();
+
+  @TestSandbox(lifecycle = SandboxLifecycle.PER_CLASS)
+  public static final Sandbox sandbox =
+      Sandbox.builder()
+          .damlRoot(PINGPONG_PATH)
+          .dar(DAR_PATH)
+          .parties(ALICE)
+          .logicalReset()
+          .build();
+
+  @RepeatedTest(3)
+  public void testsShareTheSandboxWithFreshParties() {
+    ports.add(sandbox.getSandboxPort());
+    assertThat(ports.size(), is(1));
+    assertTrue(parties.add(sandbox.getPartyId(ALICE)), "Each test should get a fresh party.");
+  }
+}
@@ -0,0 +1,21 @@
+/*
+ * Copyright 2020 Digital Asset (Switzerland) GmbH and/or its affiliates
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.daml.extensions.testing.junit5;
+
+import org.junit.jupiter.api.RepeatedTest;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+@ExtendWith(SandboxTestExtension.class)
+public class PerSuiteSandboxSecondIT {
+  @TestSandbox(lifecycle = SandboxLifecycle.PER_SUITE)
+  public static final Sandbox sandbox = SuiteSandbox.sandbox;
+
+  @RepeatedTest(3)
+  public void testsOfAllClassesTakeTurns() throws InterruptedException {
+    SuiteSandbox.useExclusively();
+  }
+}
@@ -6,6 +6,7 @@
 
 package com.daml.extensions.testing.junit5;
 
+import com.daml.extensions.testing.ledger.LedgerFixture;
 import org.hamcrest.Matchers;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
@@ -58,8 +59,36 @@ public class SandboxTest {
         () -> Sandbox.builder().dar(DAR_PATH).damlRoot(RESOURCE_DIR).build());
   }
 
+  @Test
+  public void setupFixtureCannotBeResetLogically() {
+    Assertions.assertThrows(
+        IllegalStateException.class,
+        () ->
+            Sandbox.builder()
+                .damlRoot(PINGPONG_PATH)
+                .dar(DAR_PATH)
+                .setupFixture(LedgerFixture.builder().party("Alice").build())
+                .logicalReset()
+                .build());
+  }
+
+  @Test
+  public void logicallyResetSandboxMustBeStatic() {
+    Assertions.assertThrows(
+        IllegalStateException.class,
+        () ->
+            SandboxTestExtension.getSandboxes(
+                LogicallyResetInstanceSandbox.class, new LogicallyResetInstanceSandbox()));
+  }
+
   @Test
   public void specifiedPortIsAssignedWhenSandboxIsStarted() {
     assertThat(sandbox.getSandboxPort(), Matchers.is(customPort));
   }
+
+  static class LogicallyResetInstanceSandbox {
+    @TestSandbox
+    final Sandbox sandbox =
+        Sandbox.builder().damlRoot(PINGPONG_PATH).dar(DAR_PATH).logicalReset().build();
+  }
 }
@@ -0,0 +1,45 @@
+/*
+ * Copyright 2020 Digital Asset (Switzerland) GmbH and/or its affiliates
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.daml.extensions.testing.junit5;
+
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static com.daml.extensions.testing.TestCommons.ALICE;
+import static com.daml.extensions.testing.TestCommons.DAR_PATH;
+import static com.daml.extensions.testing.TestCommons.PINGPONG_PATH;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/** The sandbox shared by the PER_SUITE test classes, which may run concurrently. */
+class SuiteSandbox {
+  static final Sandbox sandbox =
+      Sandbox.builder()
+          .damlRoot(PINGPONG_PATH)
+          .dar(DAR_PATH)
+          .parties(ALICE)
+          .logicalReset()
+          .build();
+
+  private static final Set<Integer> ports = ConcurrentHashMap.newKeySet();
+  private static final AtomicBoolean inUse = new AtomicBoolean(false);
+
+  /** Uses the sandbox for a while, failing if any other test uses it meanwhile. */
+  static void useExclusively() throws InterruptedException {
+    assertTrue(inUse.compareAndSet(false, true), "Another test is using the suite sandbox.");
+    try {
+      ports.add(sandbox.getSandboxPort());
+      assertThat(ports.size(), is(1));
+      Thread.sleep(Duration.ofMillis(200).toMillis());
+    } finally {
+      inUse.set(false);
+    }
+  }
+}
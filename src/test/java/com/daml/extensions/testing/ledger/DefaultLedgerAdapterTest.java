@@ -0,0 +1,54 @@
+/*
+ * Copyright 2020 Digital Asset (Switzerland) GmbH and/or its affiliates
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.daml.extensions.testing.ledger;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+
+import static com.daml.extensions.testing.ledger.DefaultLedgerAdapter.nextStep;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+public class DefaultLedgerAdapterTest {
+  private static final Instant START = Instant.parse("2020-01-01T00:00:00Z");
+  private static final Instant END = START.plus(Duration.ofHours(1));
+  private static final Duration STEP = Duration.ofMinutes(10);
+
+  @Test
+  public void stepOnGridIsKept() {
+    assertThat(nextStep(START, STEP, at(20, 0), END), is(at(20, 0)));
+  }
+
+  @Test
+  public void stepIsRoundedUpToTheGrid() {
+    assertThat(nextStep(START, STEP, at(20, 1), END), is(at(30, 0)));
+    assertThat(nextStep(START, STEP, START.plusNanos(1), END), is(at(10, 0)));
+  }
+
+  @Test
+  public void stepIsCappedAtTheEnd() {
+    Instant end = at(25, 0);
+    assertThat(nextStep(START, STEP, at(21, 0), end), is(end));
+  }
+
+  @Test
+  public void withoutDueTriggerTheEndIsNext() {
+    assertThat(nextStep(START, STEP, null, END), is(END));
+  }
+
+  @Test
+  public void gridIsAnchoredAtTheStart() {
+    Instant start = START.plusSeconds(7);
+    assertThat(nextStep(start, STEP, at(10, 0), END), is(at(10, 7)));
+  }
+
+  private static Instant at(int minutes, int seconds) {
+    return START.plus(Duration.ofMinutes(minutes)).plusSeconds(seconds);
+  }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2020 Digital Asset (Switzerland) GmbH and/or its affiliates
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.daml.extensions.testing.ledger;
+
+import com.daml.ledger.javaapi.data.Command;
+import com.daml.ledger.javaapi.data.CreateCommand;
+import com.daml.ledger.javaapi.data.DamlRecord;
+import com.daml.ledger.javaapi.data.Identifier;
+import com.daml.ledger.javaapi.data.Int64;
+import com.daml.ledger.javaapi.data.Party;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class LedgerFixtureTest {
+  private static final Identifier TEMPLATE = new Identifier("pkg", "PingPong", "Ping");
+
+  @Test
+  public void partiesAreCollectedOnceInOrder() {
+    LedgerFixture fixture =
+        LedgerFixture.parse(
+            Arrays.asList(
+                "# parties are referred to by display name",
+                "party Alice",
+                "",
+                "create Bob PingPong:Ping",
+                "  sender = Bob",
+                "  receiver = Alice",
+                "party Alice",
+                "create Charlie PingPong:Ping",
+                "  count = 1"));
+
+    assertThat(fixture.getParties(), contains("Alice", "Bob", "Charlie"));
+  }
+
+  @Test
+  public void fieldOutsideOfCreationIsRejected() {
+    assertThrows(
+        IllegalArgumentException.class,
+        () -> LedgerFixture.parse(Arrays.asList("party Alice", "count = 1")));
+  }
+
+  @Test
+  public void malformedLineIsRejected() {
+    assertThrows(
+        IllegalArgumentException.class,
+        () -> LedgerFixture.parse(Arrays.asList("create Alice")));
+  }
+
+  @Test
+  public void consecutiveCreationsOfAPartyAreBatched() throws Exception {
+    LedgerFixture fixture =
+        LedgerFixture.builder()
+            .create("Alice", TEMPLATE, payload(1))
+            .create("Alice", TEMPLATE, payload(2))
+            .create("Bob", TEMPLATE, payload(3))
+            .create("Alice", TEMPLATE, payload(4))
+            .build();
+    List<String> submissions = new ArrayList<>();
+
+    fixture.apply(
+        null,
+        name -> new Party(name + "::1"),
+        (party, batch) -> submissions.add(party.getValue() + " " + counts(batch)));
+
+    assertThat(submissions, contains("Alice::1 [1, 2]", "Bob::1 [3]", "Alice::1 [4]"));
+  }
+
+  @Test
+  public void emptyFixtureSubmitsNothing() throws Exception {
+    List<Party> submitters = new ArrayList<>();
+
+    LedgerFixture.builder()
+        .party("Alice")
+        .build()
+        .apply(null, Party::new, (party, batch) -> submitters.add(party));
+
+    assertThat(submitters.isEmpty(), is(true));
+  }
+
+  private static DamlRecord payload(long count) {
+    return new DamlRecord(new DamlRecord.Field("count", new Int64(count)));
+  }
+
+  private static List<Long> counts(List<Command> batch) {
+    List<Long> counts = new ArrayList<>();
+    for (Command command : batch) {
+      DamlRecord payload = ((CreateCommand) command).getCreateArguments();
+      counts.add(payload.getFieldsMap().get("count").asInt64().get().getValue());
+    }
+    return counts;
+  }
+}
@@ -7,6 +7,7 @@
 package com.daml.extensions.testing.ledger;
 
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.parallel.Isolated;
 
 import java.io.BufferedReader;
 import java.io.IOException;
@@ -26,6 +27,8 @@ import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.is;
 import static org.junit.jupiter.api.Assertions.*;
 
+// counts the JVMs on the machine, so no other sandbox may start or stop meanwhile
+@Isolated
 public class SandboxManagerIT {
 
   @Test
@@ -133,6 +136,35 @@ public class SandboxManagerIT {
     }
   }
 
+  @Test
+  public void sandboxesRunSideBySide() throws Exception {
+    SandboxManager first = newManager();
+    SandboxManager second = newManager();
+    try {
+      first.start();
+      second.start();
+      assertNotEquals(first.getPort(), second.getPort());
+      assertThat(first.getLedgerId(), is(second.getLedgerId()));
+    } finally {
+      first.stop();
+      second.stop();
+    }
+  }
+
+  private SandboxManager newManager() {
+    return new SandboxManager(
+        RESOURCE_DIR,
+        Optional.empty(),
+        Optional.empty(),
+        Optional.empty(),
+        Duration.ofMinutes(1),
+        Duration.ofSeconds(10),
+        new String[0],
+        DAR_PATH,
+        (_ignore1, _ignore2) -> {},
+        false);
+  }
+
   private void eventually(Runnable code) throws InterruptedException {
     Instant started = Instant.now();
     Function<Duration, Boolean> hasPassed =
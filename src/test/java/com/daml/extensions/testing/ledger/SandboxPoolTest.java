@@ -0,0 +1,59 @@
+/*
+ * Copyright 2020 Digital Asset (Switzerland) GmbH and/or its affiliates
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.daml.extensions.testing.ledger;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class SandboxPoolTest {
+  private final AtomicInteger started = new AtomicInteger();
+
+  @Test
+  public void releasedSandboxesAreOnlyReplacedUpToThePoolSize() throws Exception {
+    SandboxPool pool = new SandboxPool();
+    SandboxPool.Key key = new SandboxPool.Key("test");
+
+    SandboxManager first = pool.lease(key, 1, FakeSandboxManager::new);
+    SandboxManager second = pool.lease(key, 1, FakeSandboxManager::new);
+    pool.release(key, first);
+    pool.release(key, second);
+    pool.shutdown();
+
+    // one warm sandbox, one started ad hoc for the second lease, one replacement
+    assertThat(started.get(), is(3));
+  }
+
+  private class FakeSandboxManager extends SandboxManager {
+    FakeSandboxManager() {
+      super(
+          null,
+          Optional.empty(),
+          Optional.empty(),
+          Optional.empty(),
+          Duration.ZERO,
+          Duration.ZERO,
+          new String[0],
+          null,
+          (client, channel) -> {},
+          false);
+    }
+
+    @Override
+    public void start() {
+      started.incrementAndGet();
+    }
+
+    @Override
+    public void stop() {}
+  }
+}
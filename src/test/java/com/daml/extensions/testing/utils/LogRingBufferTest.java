@@ -0,0 +1,45 @@
+/*
+ * Copyright 2020 Digital Asset (Switzerland) GmbH and/or its affiliates
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.daml.extensions.testing.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class LogRingBufferTest {
+
+  @Test
+  public void keepsLinesInOrderUntilFull() {
+    LogRingBuffer buffer = new LogRingBuffer(3);
+    buffer.add("a");
+    buffer.add("b");
+    assertThat(buffer.tail(5), is(Arrays.asList("a", "b")));
+  }
+
+  @Test
+  public void dropsOldestLinesWhenFull() {
+    LogRingBuffer buffer = new LogRingBuffer(3);
+    for (String line : Arrays.asList("a", "b", "c", "d", "e")) {
+      buffer.add(line);
+    }
+    assertThat(buffer.tail(3), is(Arrays.asList("c", "d", "e")));
+    assertThat(buffer.tail(2), is(Arrays.asList("d", "e")));
+    assertThat(buffer.written(), is(5L));
+  }
+
+  @Test
+  public void emptyTail() {
+    LogRingBuffer buffer = new LogRingBuffer(3);
+    assertThat(buffer.tail(2), is(Collections.emptyList()));
+    buffer.add("a");
+    assertThat(buffer.tail(0), is(Collections.emptyList()));
+  }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2020 Digital Asset (Switzerland) GmbH and/or its affiliates
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.daml.extensions.testing.utils;
+
+import com.daml.daml_lf_dev.DamlLf1;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Optional;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class PackageMetadataCacheTest {
+  private static final DamlLf1.DottedName MODULE =
+      DamlLf1.DottedName.newBuilder().addSegments("PingPong").build();
+  private static final DamlLf1.FieldWithType COUNT =
+      DamlLf1.FieldWithType.newBuilder()
+          .setFieldStr("count")
+          .setType(
+              DamlLf1.Type.newBuilder()
+                  .setPrim(DamlLf1.Type.Prim.newBuilder().setPrim(DamlLf1.PrimType.INT64)))
+          .build();
+
+  @TempDir Path directory;
+
+  @Test
+  public void storedMetadataIsLoadedUnchanged() {
+    PackageMetadata stored =
+        new PackageMetadata(
+            "pkg",
+            Collections.singletonList(MODULE),
+            Arrays.asList(
+                new PackageMetadata.DataType(
+                    "PingPong",
+                    "Ping",
+                    Collections.singletonList(COUNT),
+                    Optional.of(Collections.singletonMap("RespondPong", "RespondPong"))),
+                new PackageMetadata.DataType(
+                    "PingPong",
+                    "Empty",
+                    Collections.emptyList(),
+                    Optional.of(Collections.emptyMap())),
+                new PackageMetadata.DataType("PingPong", "Color", null, Optional.empty())));
+    PackageMetadataCache cache = new PackageMetadataCache(directory);
+
+    cache.store(stored);
+    PackageMetadata loaded = cache.load("pkg").get();
+
+    assertThat(loaded.packageId, is("pkg"));
+    assertThat(loaded.moduleNames, is(stored.moduleNames));
+    assertThat(loaded.dataTypes.size(), is(3));
+    for (int i = 0; i < 3; i++) {
+      PackageMetadata.DataType expected = stored.dataTypes.get(i);
+      PackageMetadata.DataType actual = loaded.dataTypes.get(i);
+      assertThat(actual.moduleName, is(expected.moduleName));
+      assertThat(actual.entityName, is(expected.entityName));
+      assertThat(actual.fields, is(expected.fields));
+      assertThat(actual.choices, is(expected.choices));
+    }
+  }
+
+  @Test
+  public void missingPackageIsNotLoaded() {
+    assertThat(new PackageMetadataCache(directory).load("pkg"), is(Optional.empty()));
+  }
+
+  @Test
+  public void unreadableFileIsIgnored() throws IOException {
+    Files.write(directory.resolve("pkg.meta"), new byte[] {0, 0, 0, 1, 42});
+    assertThat(new PackageMetadataCache(directory).load("pkg"), is(Optional.empty()));
+  }
+}
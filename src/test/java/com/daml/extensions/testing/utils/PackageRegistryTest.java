@@ -0,0 +1,54 @@
+/*
+ * Copyright 2020 Digital Asset (Switzerland) GmbH and/or its affiliates
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.daml.extensions.testing.utils;
+
+import com.daml.daml_lf_dev.DamlLf1;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class PackageRegistryTest {
+  private static final DamlLf1.DottedName MODULE =
+      DamlLf1.DottedName.newBuilder().addSegments("PingPong").build();
+
+  @Test
+  public void firstPackageDefiningANameWins() {
+    PackageRegistry registry =
+        PackageRegistry.EMPTY.with(Arrays.asList(pingPackage("first"), pingPackage("second")));
+
+    assertThat(registry.packageNames.get(MODULE), is("first"));
+    assertThat(registry.identifiers.get("PingPong:Ping").getPackageId(), is("first"));
+    assertThat(registry.dataTypes.get("PingPong:Ping").choices.isPresent(), is(false));
+    assertThat(registry.contains("second"), is(true));
+  }
+
+  @Test
+  public void laterRegistrationDoesNotReplaceNames() {
+    PackageRegistry registry =
+        PackageRegistry.EMPTY
+            .with(Collections.singletonList(pingPackage("first")))
+            .with(Collections.singletonList(pingPackage("second")));
+
+    assertThat(registry.identifiers.get("PingPong:Ping").getPackageId(), is("first"));
+  }
+
+  private static PackageMetadata pingPackage(String packageId) {
+    Optional<Map<String, String>> choices =
+        packageId.equals("first") ? Optional.empty() : Optional.of(Collections.emptyMap());
+    return new PackageMetadata(
+        packageId,
+        Collections.singletonList(MODULE),
+        Collections.singletonList(
+            new PackageMetadata.DataType("PingPong", "Ping", Collections.emptyList(), choices)));
+  }
+}
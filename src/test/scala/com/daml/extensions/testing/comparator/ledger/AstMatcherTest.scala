@@ -0,0 +1,126 @@
+/*
+ * Copyright 2020 Digital Asset (Switzerland) GmbH and/or its affiliates
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.daml.extensions.testing.comparator.ledger
+
+import java.math.BigDecimal
+import java.time.{Instant, LocalDate}
+
+import com.daml.extensions.testing.ast.{Ast, toAst}
+import com.daml.ledger.javaapi.data.{
+  Bool,
+  ContractId,
+  DamlList,
+  DamlOptional,
+  DamlRecord,
+  Date,
+  Int64,
+  Numeric,
+  Party,
+  Text,
+  Timestamp,
+  Value,
+  Variant,
+  Unit => DamlUnit
+}
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Test
+
+/** Compiled matchers must give exactly the results of [[compareAst]]. */
+class AstMatcherTest {
+  private val expectations: List[Ast] = List(
+    Ast.Null,
+    Ast.Value("{IGNORE}"),
+    Ast.Value("Alice"),
+    Ast.Value("{REGEX:Ali.*}"),
+    Ast.Value("{REGEX:[0-9]+}"),
+    Ast.Value("{CAPTURE:cid}"),
+    Ast.Value("#1:0"),
+    Ast.Value("7"),
+    Ast.Value("007"),
+    Ast.Value("1.50"),
+    Ast.Value("1.5"),
+    Ast.Value("true"),
+    Ast.Value("2020-01-01"),
+    Ast.Value("2020-01-01T00:00:00Z"),
+    Ast.Value("Ctor"),
+    Ast.Value("Some"),
+    Ast.Seq(Nil),
+    Ast.Seq(List(Ast.Value("Alice"), Ast.Value("7"))),
+    Ast.Seq(List(Ast.Value("{IGNORE}"), Ast.Null)),
+    Ast.Seq(List(Ast.Value("{CAPTURE:a}"), Ast.Value("{CAPTURE:b}"))),
+    Ast.Map(Map("Ctor" -> Ast.Value("7"))),
+    Ast.Map(Map("Ctor" -> Ast.Null)),
+    Ast.Map(Map("Some" -> Ast.Value("Alice"))),
+    Ast.Map(Map("Some" -> Ast.Null)),
+    Ast.Map(Map("Alice" -> Ast.Null)),
+    Ast.Map(Map("a" -> Ast.Value("1"), "b" -> Ast.Null))
+  )
+
+  private val values: List[Value] = List(
+    null,
+    DamlUnit.getInstance(),
+    new Text("Alice"),
+    new Text("42"),
+    new Party("Alice"),
+    new Party("Bob"),
+    new ContractId("#1:0"),
+    new Int64(7),
+    new Numeric(new BigDecimal("1.50")),
+    new Numeric(new BigDecimal("1.5")),
+    Bool.TRUE,
+    Bool.FALSE,
+    new Date(LocalDate.parse("2020-01-01").toEpochDay.toInt),
+    Timestamp.fromInstant(Instant.parse("2020-01-01T00:00:00Z")),
+    new DamlRecord(),
+    new DamlRecord(new DamlRecord.Field(new Party("Alice")),
+                   new DamlRecord.Field(new Int64(7))),
+    new DamlRecord(new DamlRecord.Field(new Text("x")),
+                   new DamlRecord.Field(DamlUnit.getInstance())),
+    DamlList.of(),
+    DamlList.of(new Text("Alice"), new Int64(7)),
+    DamlList.of(new Text("Alice")),
+    new Variant("Ctor", new Int64(7)),
+    new Variant("Ctor", DamlUnit.getInstance()),
+    new Variant("Other", new Int64(7)),
+    DamlOptional.of(new Text("Alice")),
+    DamlOptional.EMPTY,
+    new DamlRecord(new DamlRecord.Field(DamlOptional.of(new Int64(7))),
+                   new DamlRecord.Field(new Variant("Ctor", new Int64(8))))
+  )
+
+  // shapes which no DAML value converts to
+  private val asts: List[Ast] = List(
+    Ast.Map(Map("a" -> Ast.Value("1"), "b" -> Ast.Value("2"))),
+    Ast.Map(Map("a" -> Ast.Value("1"))),
+    Ast.Map(Map.empty[String, Ast])
+  )
+
+  @Test
+  def testMatchesCompareAst(): Unit =
+    for (expected <- expectations; actual <- values.map(toAst) ++ asts) {
+      assertEquals(compareAst(expected, actual),
+                   AstMatcher.compile(expected).test(actual),
+                   s"$expected against $actual")
+    }
+
+  @Test
+  def testValueMatchesCompareAstOfConvertedValue(): Unit =
+    for (expected <- expectations; actual <- values) {
+      assertEquals(compareAst(expected, toAst(actual)),
+                   AstMatcher.compile(expected).testValue(actual),
+                   s"$expected against $actual")
+    }
+
+  @Test
+  def testStringMatchesCompareValues(): Unit =
+    for (expected <- List("x", "{IGNORE}", "{REGEX:x+}", "{CAPTURE:c}");
+         actual <- List("x", "xx", "y")) {
+      assertEquals(compareValues(expected, actual, "ROOT"),
+                   AstMatcher.compileValue(expected, "ROOT").testString(actual),
+                   s"$expected against $actual")
+    }
+}